@@ -0,0 +1,71 @@
+package flexjson.benchmarks;
+
+import flexjson.JSONSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of include and exclude expressions.  The same graphs are serialized with no
+ * expressions at all, with a few, and with a long list of wildcard expressions most of
+ * which never match, like the exclusion lists actions pass to AppController.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 2, jvmArgs = { "-Xms1g", "-Xmx1g", "-XX:+UseParallelGC" } )
+public class ConfigurationBenchmark {
+
+    @Param( { "none", "few", "many" } )
+    public String expressions;
+
+    private List<Fixtures.Customer> customers;
+    private Fixtures.Node graph;
+    private JSONSerializer serializer;
+
+    @Setup
+    public void setUp() {
+        customers = Fixtures.customers( 1000 );
+        graph = Fixtures.graph( 5, 4 );
+        serializer = new JSONSerializer();
+        if( "few".equals( expressions ) ) {
+            serializer.exclude( "*.class", "*.password" ).include( "children" );
+        } else if( "many".equals( expressions ) ) {
+            serializer.exclude( "*.class", "*.password", "address.zip", "*.email", "*.root", "children.children.attributes" );
+            for( int i = 0; i < 40; i++ ) {
+                serializer.exclude( "*.unused" + i, "unused" + i + ".*" );
+            }
+            serializer.include( "children", "children.children", "*.attributes", "address.street" );
+        } else if( !"none".equals( expressions ) ) {
+            throw new IllegalArgumentException( "Unknown expressions " + expressions );
+        }
+    }
+
+    @Benchmark
+    public String serializeList() {
+        return serializer.serialize( customers );
+    }
+
+    @Benchmark
+    public String serializeGraph() {
+        return serializer.serialize( graph );
+    }
+
+    @Benchmark
+    public String deepSerializeGraph() {
+        return serializer.deepSerialize( graph );
+    }
+}
@@ -0,0 +1,60 @@
+package flexjson.benchmarks;
+
+import flexjson.JSONSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * String escaping on its own, with and without HTML safe output, over each kind of string
+ * of {@link Fixtures#document()}.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 2, jvmArgs = { "-Xms1g", "-Xmx1g", "-XX:+UseParallelGC" } )
+public class EscapingBenchmark {
+
+    @Param( { "ascii", "escaped", "unicode", "html" } )
+    public String text;
+
+    @Param( { "false", "true" } )
+    public boolean htmlSafe;
+
+    private String value;
+    private JSONSerializer serializer;
+
+    @Setup
+    public void setUp() {
+        Fixtures.Document document = Fixtures.document();
+        if( "ascii".equals( text ) ) {
+            value = document.getAscii();
+        } else if( "escaped".equals( text ) ) {
+            value = document.getEscaped();
+        } else if( "unicode".equals( text ) ) {
+            value = document.getUnicode();
+        } else if( "html".equals( text ) ) {
+            value = document.getHtml();
+        } else {
+            throw new IllegalArgumentException( "Unknown text " + text );
+        }
+        serializer = new JSONSerializer().htmlSafe( htmlSafe );
+    }
+
+    @Benchmark
+    public String escape() {
+        return serializer.serialize( value );
+    }
+}
@@ -0,0 +1,426 @@
+package flexjson.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Object graphs the benchmarks serialize.  Everything is built from a fixed seed and a fixed
+ * clock so every run, on every machine, serializes exactly the same data.
+ */
+public final class Fixtures {
+
+    private static final long SEED = 20090529L;
+    private static final long EPOCH = 1243555200000L;
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return a flat bean of scalar properties, the shape of most response DTOs.
+     */
+    public static Customer customer() {
+        return customer( new Random( SEED ), 1 );
+    }
+
+    /**
+     * @return the given number of flat beans in an ArrayList.
+     */
+    public static List<Customer> customers( int size ) {
+        Random random = new Random( SEED );
+        List<Customer> customers = new ArrayList<Customer>( size );
+        for( int i = 0; i < size; i++ ) {
+            customers.add( customer( random, i ) );
+        }
+        return customers;
+    }
+
+    /**
+     * @return the root of a tree of the given depth and fan out in which every node also
+     * points back at its parent, and every leaf at the root, so the graph is full of cycles.
+     */
+    public static Node graph( int depth, int fanOut ) {
+        Node root = new Node( "root", null );
+        grow( root, root, depth, fanOut );
+        return root;
+    }
+
+    /**
+     * @return a bean whose properties are long strings needing every kind of escape.
+     */
+    public static Document document() {
+        Random random = new Random( SEED );
+        Document document = new Document();
+        document.setTitle( "Quarterly \"results\" for <Acme & Sons>" );
+        document.setAscii( words( random, 400 ) );
+        document.setEscaped( "line one\nline \"two\"\ttabbed\\ back\r\n" + words( random, 50 ) + "\u0001\u001f" );
+        document.setUnicode( "Gr\u00fc\u00dfe aus K\u00f6ln, \u4f60\u597d\u4e16\u754c, \u041f\u0440\u0438\u0432\u0435\u0442 " + words( random, 50 ) );
+        document.setHtml( "<script>alert('x')</script><!-- " + words( random, 50 ) + " -->" );
+        List<String> paragraphs = new ArrayList<String>();
+        for( int i = 0; i < 20; i++ ) {
+            paragraphs.add( words( random, 40 ) );
+        }
+        document.setParagraphs( paragraphs );
+        return document;
+    }
+
+    /**
+     * @return a bean of boxed and primitive numbers and arrays of them.
+     */
+    public static Measurements measurements() {
+        Random random = new Random( SEED );
+        Measurements measurements = new Measurements();
+        measurements.setCount( random.nextInt() );
+        measurements.setTotal( random.nextLong() );
+        measurements.setMean( random.nextDouble() * 1000 );
+        measurements.setRatio( random.nextFloat() );
+        measurements.setPeak( Double.valueOf( random.nextGaussian() ) );
+        double[] samples = new double[ 256 ];
+        for( int i = 0; i < samples.length; i++ ) {
+            samples[i] = Math.round( random.nextGaussian() * 100000 ) / 1000.0;
+        }
+        measurements.setSamples( samples );
+        long[] timestamps = new long[ 256 ];
+        for( int i = 0; i < timestamps.length; i++ ) {
+            timestamps[i] = EPOCH + i * 1000L + random.nextInt( 1000 );
+        }
+        measurements.setTimestamps( timestamps );
+        List<Integer> buckets = new ArrayList<Integer>();
+        for( int i = 0; i < 64; i++ ) {
+            buckets.add( random.nextInt( 10000 ) );
+        }
+        measurements.setBuckets( buckets );
+        return measurements;
+    }
+
+    private static Customer customer( Random random, int id ) {
+        Customer customer = new Customer();
+        customer.setId( id );
+        customer.setName( "Customer " + id );
+        customer.setEmail( "customer" + id + "@example.com" );
+        customer.setActive( random.nextBoolean() );
+        customer.setBalance( Math.round( random.nextDouble() * 1000000 ) / 100.0 );
+        customer.setVisits( random.nextInt( 500 ) );
+        customer.setCreated( new Date( EPOCH - random.nextInt( 1000000 ) * 1000L ) );
+        Address address = new Address();
+        address.setStreet( random.nextInt( 9999 ) + " Main Street" );
+        address.setCity( "Springfield" );
+        address.setZip( String.valueOf( 10000 + random.nextInt( 89999 ) ) );
+        customer.setAddress( address );
+        customer.setPassword( "secret" + id );
+        return customer;
+    }
+
+    private static void grow( Node root, Node parent, int depth, int fanOut ) {
+        if( depth == 0 ) {
+            parent.setRoot( root );
+            return;
+        }
+        for( int i = 0; i < fanOut; i++ ) {
+            Node child = new Node( parent.getName() + "." + i, parent );
+            parent.getChildren().add( child );
+            parent.getAttributes().put( "child" + i, child.getName() );
+            grow( root, child, depth - 1, fanOut );
+        }
+    }
+
+    private static String words( Random random, int count ) {
+        StringBuilder builder = new StringBuilder();
+        for( int i = 0; i < count; i++ ) {
+            if( i > 0 ) {
+                builder.append( ' ' );
+            }
+            int length = 2 + random.nextInt( 8 );
+            for( int j = 0; j < length; j++ ) {
+                builder.append( (char) ( 'a' + random.nextInt( 26 ) ) );
+            }
+        }
+        return builder.toString();
+    }
+
+    public static class Customer {
+        private int id;
+        private String name;
+        private String email;
+        private boolean active;
+        private double balance;
+        private int visits;
+        private Date created;
+        private Address address;
+        private String password;
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId( int id ) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName( String name ) {
+            this.name = name;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        public void setEmail( String email ) {
+            this.email = email;
+        }
+
+        public boolean isActive() {
+            return active;
+        }
+
+        public void setActive( boolean active ) {
+            this.active = active;
+        }
+
+        public double getBalance() {
+            return balance;
+        }
+
+        public void setBalance( double balance ) {
+            this.balance = balance;
+        }
+
+        public int getVisits() {
+            return visits;
+        }
+
+        public void setVisits( int visits ) {
+            this.visits = visits;
+        }
+
+        public Date getCreated() {
+            return created;
+        }
+
+        public void setCreated( Date created ) {
+            this.created = created;
+        }
+
+        public Address getAddress() {
+            return address;
+        }
+
+        public void setAddress( Address address ) {
+            this.address = address;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword( String password ) {
+            this.password = password;
+        }
+    }
+
+    public static class Address {
+        private String street;
+        private String city;
+        private String zip;
+
+        public String getStreet() {
+            return street;
+        }
+
+        public void setStreet( String street ) {
+            this.street = street;
+        }
+
+        public String getCity() {
+            return city;
+        }
+
+        public void setCity( String city ) {
+            this.city = city;
+        }
+
+        public String getZip() {
+            return zip;
+        }
+
+        public void setZip( String zip ) {
+            this.zip = zip;
+        }
+    }
+
+    public static class Node {
+        private final String name;
+        private final Node parent;
+        private Node root;
+        private final List<Node> children = new ArrayList<Node>();
+        private final Map<String,String> attributes = new LinkedHashMap<String,String>();
+
+        public Node( String name, Node parent ) {
+            this.name = name;
+            this.parent = parent;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Node getParent() {
+            return parent;
+        }
+
+        public Node getRoot() {
+            return root;
+        }
+
+        public void setRoot( Node root ) {
+            this.root = root;
+        }
+
+        public List<Node> getChildren() {
+            return children;
+        }
+
+        public Map<String,String> getAttributes() {
+            return attributes;
+        }
+    }
+
+    public static class Document {
+        private String title;
+        private String ascii;
+        private String escaped;
+        private String unicode;
+        private String html;
+        private List<String> paragraphs;
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle( String title ) {
+            this.title = title;
+        }
+
+        public String getAscii() {
+            return ascii;
+        }
+
+        public void setAscii( String ascii ) {
+            this.ascii = ascii;
+        }
+
+        public String getEscaped() {
+            return escaped;
+        }
+
+        public void setEscaped( String escaped ) {
+            this.escaped = escaped;
+        }
+
+        public String getUnicode() {
+            return unicode;
+        }
+
+        public void setUnicode( String unicode ) {
+            this.unicode = unicode;
+        }
+
+        public String getHtml() {
+            return html;
+        }
+
+        public void setHtml( String html ) {
+            this.html = html;
+        }
+
+        public List<String> getParagraphs() {
+            return paragraphs;
+        }
+
+        public void setParagraphs( List<String> paragraphs ) {
+            this.paragraphs = paragraphs;
+        }
+    }
+
+    public static class Measurements {
+        private int count;
+        private long total;
+        private double mean;
+        private float ratio;
+        private Double peak;
+        private double[] samples;
+        private long[] timestamps;
+        private List<Integer> buckets;
+
+        public int getCount() {
+            return count;
+        }
+
+        public void setCount( int count ) {
+            this.count = count;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public void setTotal( long total ) {
+            this.total = total;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public void setMean( double mean ) {
+            this.mean = mean;
+        }
+
+        public float getRatio() {
+            return ratio;
+        }
+
+        public void setRatio( float ratio ) {
+            this.ratio = ratio;
+        }
+
+        public Double getPeak() {
+            return peak;
+        }
+
+        public void setPeak( Double peak ) {
+            this.peak = peak;
+        }
+
+        public double[] getSamples() {
+            return samples;
+        }
+
+        public void setSamples( double[] samples ) {
+            this.samples = samples;
+        }
+
+        public long[] getTimestamps() {
+            return timestamps;
+        }
+
+        public void setTimestamps( long[] timestamps ) {
+            this.timestamps = timestamps;
+        }
+
+        public List<Integer> getBuckets() {
+            return buckets;
+        }
+
+        public void setBuckets( List<Integer> buckets ) {
+            this.buckets = buckets;
+        }
+    }
+}
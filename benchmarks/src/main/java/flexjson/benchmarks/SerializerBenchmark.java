@@ -0,0 +1,69 @@
+package flexjson.benchmarks;
+
+import flexjson.JSONSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the shallow, deep and pretty printing paths of {@link JSONSerializer} over
+ * each of the {@link Fixtures}.  The serializer is configured once per trial, the way an
+ * application holds on to it, so plans are built during warm up and not measured.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 2, jvmArgs = { "-Xms1g", "-Xmx1g", "-XX:+UseParallelGC" } )
+public class SerializerBenchmark {
+
+    @Param( { "customer", "customers", "graph", "document", "measurements" } )
+    public String fixture;
+
+    private Object target;
+    private JSONSerializer serializer;
+
+    @Setup
+    public void setUp() {
+        if( "customer".equals( fixture ) ) {
+            target = Fixtures.customer();
+        } else if( "customers".equals( fixture ) ) {
+            target = Fixtures.customers( 10000 );
+        } else if( "graph".equals( fixture ) ) {
+            target = Fixtures.graph( 6, 4 );
+        } else if( "document".equals( fixture ) ) {
+            target = Fixtures.document();
+        } else if( "measurements".equals( fixture ) ) {
+            target = Fixtures.measurements();
+        } else {
+            throw new IllegalArgumentException( "Unknown fixture " + fixture );
+        }
+        serializer = new JSONSerializer().exclude( "*.class" );
+    }
+
+    @Benchmark
+    public String serialize() {
+        return serializer.serialize( target );
+    }
+
+    @Benchmark
+    public String deepSerialize() {
+        return serializer.deepSerialize( target );
+    }
+
+    @Benchmark
+    public String prettyPrint() {
+        return serializer.prettyPrint( target );
+    }
+}
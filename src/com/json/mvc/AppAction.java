@@ -24,6 +24,8 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.json.mvc.exceptions.AppException;
 
+import flexjson.SerializationStats;
+
 /**
  * <p>
  * Abstract class which should be sub-classed to perform specific functions.  An AppAction is
@@ -39,6 +41,7 @@ public abstract class AppAction {
 	
 	private HttpServletRequest httpServletRequest;
 	private HttpServletResponse httpServletResponse;
+	private SerializationStats serializationStats;
 	
 	/**
 	 * Main execution method of an action.  Sub-classes will define logic in this method which operates
@@ -46,7 +49,11 @@ public abstract class AppAction {
 	 * 
 	 * @param arguments the values in the URL after the action-name that are delimited by forward-slashes
 	 * @param parameters the key-value pairs in the URL which appear after the action name and arguments
-	 * @return an object which gets serialized into JSON and is displayed in the HTTP response
+	 * @return an object which gets serialized into JSON and is displayed in the HTTP response.  Large results
+	 * can be returned as a {@link java.util.stream.Stream} or {@link flexjson.Cursor}, which are read one element
+	 * at a time while the response is written and closed afterwards, instead of a fully loaded List.
+	 * JSON the action already holds, from a cache or a document store, can be returned as a
+	 * {@link flexjson.RawJson}, alone or inside other objects, to be written out as it is.
 	 * @throws AppException
 	 */
 	public abstract Object execute(List<String> arguments, Map<String, String[]> parameters) throws AppException;
@@ -73,6 +80,21 @@ public abstract class AppAction {
 	public String[] exclusions() {
 		return null;
 	}
+	
+	/**
+	 * Optional method which can be overridden by an Action whose responses contain long lists of beans of a
+	 * single class, like reports.  When it returns true such lists are written as a table which names each
+	 * property once in a list of columns, followed by a list of rows holding the values of each bean.
+	 * <p>
+	 * By default a response is columnar when the request has the parameter 'columnar=true'.  See
+	 * flexjson.JSONSerializer#columnar(boolean) for the details of the table format.
+	 * </p>
+	 * 
+	 * @return true to write lists of beans of one class as tables
+	 */
+	public boolean columnar() {
+		return httpServletRequest != null && "true".equals(httpServletRequest.getParameter("columnar"));
+	}
 
 	/**
 	 * @return the httpServletRequest
@@ -101,4 +123,21 @@ public abstract class AppAction {
 	public void setHttpServletResponse(HttpServletResponse httpServletResponse) {
 		this.httpServletResponse = httpServletResponse;
 	}
+
+	/**
+	 * Available from postExecute() on, for actions exporting metrics about their responses.
+	 * 
+	 * @return the size, number of beans and collections, nesting depth and time taken by the JSON
+	 * response of this action, or null if the response wasn't written
+	 */
+	public SerializationStats getSerializationStats() {
+		return serializationStats;
+	}
+
+	/**
+	 * @param serializationStats the serializationStats to set
+	 */
+	public void setSerializationStats(SerializationStats serializationStats) {
+		this.serializationStats = serializationStats;
+	}
 }
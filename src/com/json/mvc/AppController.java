@@ -16,10 +16,14 @@
 
 package com.json.mvc;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -30,8 +34,14 @@ import com.json.mvc.models.ActionResponse;
 import com.json.mvc.models.AppError;
 import com.json.mvc.models.RegisteredAction;
 import com.json.mvc.util.ActionConfiguration;
+import com.json.mvc.util.ResponseFormat;
 
+import flexjson.CompiledSerializer;
+import flexjson.ContentHash;
+import flexjson.JSONException;
 import flexjson.JSONSerializer;
+import flexjson.SerializationStats;
+import flexjson.TokenWriter;
 
 /**
  * Controls the main flow and full life-cycle of a request.
@@ -39,10 +49,21 @@ import flexjson.JSONSerializer;
  * @author toddmcneal
  */
 public class AppController {
+	// lazy responses, like streams and cursors, are pushed to the client in pieces while they're serialized
+	private static final int FLUSH_ELEMENTS = 1000;
+	private static final int FLUSH_LENGTH = 64 * 1024;
+	
+	private static final CompiledSerializer BASE_SERIALIZER = newSerializer().compile();
+	private static final CompiledSerializer BASE_COLUMNAR_SERIALIZER = newSerializer().columnar(true).compile();
+	
+	// serializers including the exclusions of an action, compiled the first time the action responds
+	private static final Map<Class<?>, ActionSerializer> ACTION_SERIALIZERS = new ConcurrentHashMap<Class<?>, ActionSerializer>();
+	
 	private HttpServletRequest httpRequest;
 	private HttpServletResponse httpResponse;
 	private String httpMethod;
-	private JSONSerializer serializer;
+	private ResponseFormat responseFormat = ResponseFormat.JSON;
+	private Class<?> actionClass;
 	
 	public AppController() { };
 	
@@ -50,9 +71,6 @@ public class AppController {
 		this.httpRequest = httpRequest;
 		this.httpResponse = httpResponse;
 		this.httpMethod = httpMethod;
-		
-		// don't let the JSON response include the 'class' property of the returned object
-		serializer = new JSONSerializer().exclude("*.class");
 	}
 	
 	/**
@@ -60,8 +78,51 @@ public class AppController {
 	 * will be returned, otherwise a JSON object containing an error message will be generated.
 	 * 
 	 * @return the String representation of a JSON response
+	 * @deprecated the whole response is held in memory before it's returned, use {@link #execute(OutputStream)}
+	 * to stream it to the client instead
 	 */
+	@Deprecated
 	public String execute() {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		ResponseFormat format = responseFormat;
+		
+		// a String can only hold JSON text
+		responseFormat = ResponseFormat.JSON;
+		try {
+			execute(buffer);
+		} finally {
+			responseFormat = format;
+		}
+		
+		try {
+			return buffer.toString("UTF-8");
+		} catch(UnsupportedEncodingException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+	
+	/**
+	 * Executes an action from within a new Hibernate transaction.  If the action is successful, a JSON response
+	 * will be written, otherwise a JSON object containing an error message will be generated.
+	 * <p>
+	 * The response is streamed into the output stream as UTF-8 while it is being serialized, so large
+	 * responses reach the client before the whole object graph has been walked.
+	 * </p>
+	 * 
+	 * @param out the stream receiving the JSON response
+	 */
+	public void execute(OutputStream out) {
+		execute(out, null);
+	}
+	
+	/**
+	 * Executes an action like {@link #execute(OutputStream)}, hashing the JSON response of the action
+	 * while it's written.  Error responses aren't hashed.
+	 * 
+	 * @param out the stream receiving the JSON response
+	 * @param hash the hash to add the response to, or null to hash nothing
+	 */
+	public void execute(OutputStream out, ContentHash hash) {
 		AppAction action = null;
 		
 		try {
@@ -69,6 +130,7 @@ public class AppController {
 			String actionPath = retrieveActionFromRequest(httpRequest.getRequestURI(), httpRequest.getContextPath());
 			
 			Class<AppAction> actionClass = lookupAction(actionPath);
+			this.actionClass = actionClass;
 			
 			List<String> arguments = extractArguments(httpRequest.getRequestURI(), httpRequest.getContextPath());
 			
@@ -80,31 +142,50 @@ public class AppController {
 			
 			ActionResponse actionResponse = executeAction(action, arguments, parameters);
 			
-			String jsonResponse = generateJSONResponse(actionResponse);
+			// only the counters and the total time, the serializers don't time getters
+			SerializationStats stats = new SerializationStats();
+			generateJSONResponse(actionResponse, out, stats, hash);
+			action.setSerializationStats(stats);
 			
 			action.postExecute();
-	      
-	        return jsonResponse;
 		} catch(AppException ex) {		
 			ex.printStackTrace();
 			
-			httpResponse.setStatus(500);
-			
 			if(action != null)
 				action.onError();
 			
-			String errorResponse = generateJSONErrorResponse(ex);		
-			return errorResponse;
+			writeErrorResponse(ex, out);
 		} catch(Exception ex) {
 			ex.printStackTrace();
 			
-			httpResponse.setStatus(500);
-			
 			if(action != null)
 				action.onError();
 			
-			String errorResponse = generateJSONErrorResponse(ex);	
-			return errorResponse;
+			writeErrorResponse(ex, out);
+		}
+	}
+	
+	/**
+	 * Replaces whatever part of the response is still buffered with a JSON error response.  Once the
+	 * response has been committed the client already received part of the document, so nothing is
+	 * written in that case.
+	 */
+	private void writeErrorResponse(Exception ex, OutputStream out) {
+		if(out instanceof ByteArrayOutputStream) {
+			// the response is being serialized into memory, see execute(), so none of it was sent yet
+			((ByteArrayOutputStream)out).reset();
+		} else {
+			if(httpResponse.isCommitted())
+				return;
+			
+			httpResponse.resetBuffer();
+		}
+		httpResponse.setStatus(500);
+		
+		try {
+			generateJSONErrorResponse(ex, out);
+		} catch(JSONException jsonEx) {
+			jsonEx.printStackTrace();
 		}
 	}
 	
@@ -253,6 +334,7 @@ public class AppController {
 			Object responseObject = action.execute(arguments, parameters);
 			
 			ActionResponse actionResponse = new ActionResponse(responseObject, action.exclusions());
+			actionResponse.setColumnar(action.columnar());
 			
 			return actionResponse;
 		} catch (AppException ex) {
@@ -268,26 +350,126 @@ public class AppController {
 	 * Serializes a Java object into a JSON object.
 	 * 
 	 * @param responseObject
-	 * @return the String representation of a JSON object
+	 * @return the JSON object
+	 * @deprecated use {@link #generateJSONResponse(ActionResponse, OutputStream)} to stream the JSON object
 	 */
+	@Deprecated
 	protected String generateJSONResponse(ActionResponse actionResponse) {
-		if(actionResponse.getExclusions() != null && actionResponse.getExclusions().length > 0)
-			serializer.exclude(actionResponse.getExclusions());
+		return serializerFor(actionResponse.getExclusions(), actionResponse.isColumnar()).deepSerialize(actionResponse.getResponseObject());
+	}
+	
+	/**
+	 * Serializes a Java object into a JSON object.
+	 * 
+	 * @param responseObject
+	 * @param out the stream receiving the JSON object
+	 */
+	protected void generateJSONResponse(ActionResponse actionResponse, OutputStream out) {
+		generateJSONResponse(actionResponse, out, null);
+	}
+	
+	/**
+	 * Serializes a Java object into a JSON object, recording the size of the response, the objects it
+	 * contains and the time it took in the given stats.
+	 * 
+	 * @param responseObject
+	 * @param out the stream receiving the JSON object
+	 * @param stats the stats to record into, or null to record nothing
+	 */
+	protected void generateJSONResponse(ActionResponse actionResponse, OutputStream out, SerializationStats stats) {
+		generateJSONResponse(actionResponse, out, stats, null);
+	}
+	
+	/**
+	 * Serializes a Java object into a JSON object, or the same object in the binary response format when
+	 * one was asked for, recording it in the given stats and adding the bytes written to the given hash.
+	 * 
+	 * @param responseObject
+	 * @param out the stream receiving the JSON object
+	 * @param stats the stats to record into, or null to record nothing
+	 * @param hash the hash to add the JSON object to, or null to hash nothing
+	 */
+	protected void generateJSONResponse(ActionResponse actionResponse, OutputStream out, SerializationStats stats, ContentHash hash) {
+		TokenWriter writer = responseFormat.newTokenWriter(out, hash);
+		serializerFor(actionResponse.getExclusions(), actionResponse.isColumnar()).deepSerialize(actionResponse.getResponseObject(), writer, stats);
+	}
+	
+	/**
+	 * Returns the compiled serializer for the current action.  Serializers are shared by all requests to
+	 * the same action class, and are only compiled again if the action hands back different exclusions
+	 * than it did the last time.
+	 * 
+	 * @param exclusions the exclusions returned by the action, may be null
+	 * @return a serializer excluding the 'class' property and the given exclusions
+	 */
+	protected CompiledSerializer serializerFor(String[] exclusions) {
+		return serializerFor(exclusions, false);
+	}
+	
+	/**
+	 * Returns the compiled serializer for the current action, writing lists of beans of one class as tables
+	 * when columnar is true.  See {@link #serializerFor(String[])}.
+	 * 
+	 * @param exclusions the exclusions returned by the action, may be null
+	 * @param columnar true for the serializer writing tables
+	 * @return a serializer excluding the 'class' property and the given exclusions
+	 */
+	protected CompiledSerializer serializerFor(String[] exclusions, boolean columnar) {
+		if(exclusions == null || exclusions.length == 0)
+			return columnar ? BASE_COLUMNAR_SERIALIZER : BASE_SERIALIZER;
 		
-		return serializer.deepSerialize(actionResponse.getResponseObject());
+		ActionSerializer cached = actionClass != null ? ACTION_SERIALIZERS.get(actionClass) : null;
+		if(cached == null || !Arrays.equals(cached.exclusions, exclusions)) {
+			cached = new ActionSerializer(exclusions.clone());
+			if(actionClass != null)
+				ACTION_SERIALIZERS.put(actionClass, cached);
+		}
+		
+		return columnar ? cached.columnarSerializer : cached.serializer;
 	}
 	
 	/**
 	 * Constructs a JSON error response which contains an error code and user-friendly message.
 	 * 
 	 * @param ex
-	 * @return
+	 * @return the JSON error response
+	 * @deprecated use {@link #generateJSONErrorResponse(Exception, OutputStream)} to stream the JSON error response
 	 */
+	@Deprecated
 	protected String generateJSONErrorResponse(Exception ex) {
 		AppError errorBean = new AppError();
 		errorBean.setErrorMessage(ex.getMessage());
 		return generateJSONResponse(new ActionResponse(errorBean));
 	}
+	
+	/**
+	 * Constructs a JSON error response which contains an error code and user-friendly message.
+	 * 
+	 * @param ex
+	 * @param out the stream receiving the JSON error response
+	 */
+	protected void generateJSONErrorResponse(Exception ex, OutputStream out) {
+		AppError errorBean = new AppError();
+		errorBean.setErrorMessage(ex.getMessage());
+		generateJSONResponse(new ActionResponse(errorBean), out);
+	}
+	
+	private static class ActionSerializer {
+		private final String[] exclusions;
+		private final CompiledSerializer serializer;
+		private final CompiledSerializer columnarSerializer;
+		
+		ActionSerializer(String[] exclusions) {
+			this.exclusions = exclusions;
+			this.serializer = newSerializer().exclude(exclusions).compile();
+			this.columnarSerializer = newSerializer().exclude(exclusions).columnar(true).compile();
+		}
+	}
+	
+	private static JSONSerializer newSerializer() {
+		// don't let the JSON response include the 'class' property of the returned object
+		return new JSONSerializer().exclude("*.class").flushEvery(FLUSH_ELEMENTS, FLUSH_LENGTH);
+	}
 
 	/**
 	 * @return the httpRequest
@@ -330,4 +512,18 @@ public class AppController {
 	public void setHttpMethod(String httpMethod) {
 		this.httpMethod = httpMethod;
 	}
+
+	/**
+	 * @return the format responses are written in
+	 */
+	public ResponseFormat getResponseFormat() {
+		return responseFormat;
+	}
+
+	/**
+	 * @param responseFormat the format to write responses in, JSON unless set
+	 */
+	public void setResponseFormat(ResponseFormat responseFormat) {
+		this.responseFormat = responseFormat;
+	}
 }
@@ -17,12 +17,18 @@
 package com.json.mvc;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.json.mvc.util.BufferedResponse;
+import com.json.mvc.util.ResponseFormat;
+
+import flexjson.ContentHash;
+
 /**
  * Servlet implementation class.  Invokes the AppController controller class which handles the request.
  * 
@@ -30,6 +36,11 @@ import javax.servlet.http.HttpServletResponse;
  */
 public class AppServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
+	
+	private static final byte[] LINE_SEPARATOR = System.getProperty("line.separator").getBytes();
+	
+	// GET responses up to this size are held back to be tagged, larger ones are streamed untagged
+	private static final int ETAG_LIMIT = 256 * 1024;
        
     /**
      * @see HttpServlet#HttpServlet()
@@ -45,10 +56,7 @@ public class AppServlet extends HttpServlet {
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) 
 			throws ServletException, IOException {
 		
-		AppController controller = new AppController(request, response, "GET");
-		String jsonResponse = controller.execute();
-		response.setCharacterEncoding("UTF-8");
-		response.getWriter().println(jsonResponse);
+		process(request, response, "GET");
 	}
 	
 	/**
@@ -58,10 +66,7 @@ public class AppServlet extends HttpServlet {
 	protected void doPost(HttpServletRequest request, HttpServletResponse response) 
 			throws ServletException, IOException {
 		
-		AppController controller = new AppController(request, response, "POST");
-		String jsonResponse = controller.execute();
-		response.setCharacterEncoding("UTF-8");
-		response.getWriter().println(jsonResponse);
+		process(request, response, "POST");
 	}
 	
 	/**
@@ -71,10 +76,7 @@ public class AppServlet extends HttpServlet {
 	protected void doPut(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
 		
-		AppController controller = new AppController(request, response, "PUT");
-		String jsonResponse = controller.execute();
-		response.setCharacterEncoding("UTF-8");
-		response.getWriter().println(jsonResponse);
+		process(request, response, "PUT");
 	}
 	
 	/**
@@ -84,9 +86,93 @@ public class AppServlet extends HttpServlet {
 	protected void doDelete(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
 		
-		AppController controller = new AppController(request, response, "DELETE");
-		String jsonResponse = controller.execute();
-		response.setCharacterEncoding("UTF-8");
-		response.getWriter().println(jsonResponse);
+		process(request, response, "DELETE");
+	}
+	
+	/**
+	 * Streams the JSON response of the action matching this request, encoded as UTF-8, into the
+	 * response output stream.  Callers naming CBOR in their Accept header get the response encoded as
+	 * CBOR instead, see {@link ResponseFormat#forAccept(String)}.
+	 */
+	private void process(HttpServletRequest request, HttpServletResponse response, String httpMethod)
+			throws IOException {
+		
+		ResponseFormat format = ResponseFormat.forAccept(request.getHeader("Accept"));
+		response.setHeader("Vary", "Accept");
+		if(format == ResponseFormat.JSON)
+			response.setCharacterEncoding("UTF-8");
+		else
+			response.setContentType(format.getContentType());
+		
+		if("GET".equals(httpMethod)) {
+			processConditional(request, response, format);
+			return;
+		}
+		
+		OutputStream out = response.getOutputStream();
+		
+		AppController controller = new AppController(request, response, httpMethod);
+		controller.setResponseFormat(format);
+		controller.execute(out);
+		writeTerminator(out, format);
+	}
+	
+	/**
+	 * Answers a GET like {@link #process(HttpServletRequest, HttpServletResponse, String)}, but holds the
+	 * response back while a hash of it is worked out during serialization.  A successful response gets the
+	 * hash as a strong ETag, and an empty 304 Not Modified instead when the client already has it.  Responses
+	 * outgrowing ETAG_LIMIT are streamed as they are serialized, without an ETag.
+	 */
+	private void processConditional(HttpServletRequest request, HttpServletResponse response, ResponseFormat format)
+			throws IOException {
+		
+		BufferedResponse buffered = new BufferedResponse(response, ETAG_LIMIT);
+		ContentHash hash = new ContentHash();
+		
+		AppController controller = new AppController(request, buffered, "GET");
+		controller.setResponseFormat(format);
+		controller.execute(buffered.getBody(), hash);
+		
+		if(buffered.isBuffered() && buffered.getStatus() == HttpServletResponse.SC_OK) {
+			String etag = "\"" + hash.getValue() + "\"";
+			response.setHeader("ETag", etag);
+			
+			if(matches(request.getHeader("If-None-Match"), etag)) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+		}
+		
+		writeTerminator(buffered.getBody(), format);
+		buffered.commit();
+	}
+	
+	/**
+	 * Ends a JSON response with a line separator.  Binary responses end with their last data item, anything
+	 * after it would be read as another one.
+	 */
+	private static void writeTerminator(OutputStream out, ResponseFormat format) throws IOException {
+		if(format == ResponseFormat.JSON)
+			out.write(LINE_SEPARATOR);
+	}
+	
+	/**
+	 * @return true if one of the tags in the If-None-Match header is the given tag, compared the weak way
+	 * the header asks for, or the header is '*'
+	 */
+	private static boolean matches(String ifNoneMatch, String etag) {
+		if(ifNoneMatch == null)
+			return false;
+		
+		for(String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if(tag.startsWith("W/"))
+				tag = tag.substring(2);
+			
+			if(tag.equals("*") || tag.equals(etag))
+				return true;
+		}
+		
+		return false;
 	}
 }
@@ -20,6 +20,7 @@ package com.json.mvc.models;
 public class ActionResponse {
 	private Object responseObject;
 	private String[] exclusions;
+	private boolean columnar;
 	
 	public ActionResponse() {}
 	
@@ -56,4 +57,16 @@ public class ActionResponse {
 	public void setExclusions(String[] exclusions) {
 		this.exclusions = exclusions;
 	}
+	/**
+	 * @return true if lists of beans of one class are written as tables
+	 */
+	public boolean isColumnar() {
+		return columnar;
+	}
+	/**
+	 * @param columnar true to write lists of beans of one class as tables
+	 */
+	public void setColumnar(boolean columnar) {
+		this.columnar = columnar;
+	}
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2009 Todd McNeal
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+
+package com.json.mvc.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Holds back the body of a response until it's complete, so headers depending on the whole body,
+ * like an ETag, can still be set once it has been written.  A body outgrowing the limit is written
+ * to the wrapped response as it is and the rest streams straight through, so large responses don't
+ * pile up in memory.  Resetting the buffer discards what's held back, so an error response can
+ * replace a response that failed halfway just as it would without the wrapper.
+ */
+public class BufferedResponse extends HttpServletResponseWrapper {
+	private final int limit;
+	private final Body body = new Body();
+	private byte[] buffer = new byte[1024];
+	private int count = 0;
+	private boolean streaming = false;
+	private int status = SC_OK;
+
+	/**
+	 * @param response the response to write the body to
+	 * @param limit the most bytes to hold back before streaming the body
+	 */
+	public BufferedResponse(HttpServletResponse response, int limit) {
+		super(response);
+		this.limit = limit;
+	}
+
+	/**
+	 * @return the stream receiving the body of the response
+	 */
+	public OutputStream getBody() {
+		return body;
+	}
+
+	/**
+	 * @return true while the whole body is held back, false once it outgrew the limit and is streamed
+	 */
+	public boolean isBuffered() {
+		return !streaming;
+	}
+
+	/**
+	 * @return the status last set on the response
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Writes the body held back to the wrapped response, with its length.
+	 */
+	public void commit() throws IOException {
+		if(!streaming) {
+			super.setContentLength(count);
+			stream();
+		}
+	}
+
+	@Override
+	public void setStatus(int status) {
+		this.status = status;
+		super.setStatus(status);
+	}
+
+	@Override
+	public void sendError(int status) throws IOException {
+		this.status = status;
+		super.sendError(status);
+	}
+
+	@Override
+	public void sendError(int status, String message) throws IOException {
+		this.status = status;
+		super.sendError(status, message);
+	}
+
+	@Override
+	public boolean isCommitted() {
+		return streaming || super.isCommitted();
+	}
+
+	@Override
+	public void resetBuffer() {
+		if(!streaming)
+			count = 0;
+
+		super.resetBuffer();
+	}
+
+	@Override
+	public void reset() {
+		if(!streaming)
+			count = 0;
+
+		status = SC_OK;
+		super.reset();
+	}
+
+	@Override
+	public void flushBuffer() throws IOException {
+		stream();
+		super.flushBuffer();
+	}
+
+	private void stream() throws IOException {
+		if(!streaming) {
+			streaming = true;
+			getOutputStream().write(buffer, 0, count);
+			buffer = null;
+		}
+	}
+
+	private class Body extends OutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte)b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			if(!streaming && count + length > limit)
+				stream();
+
+			if(streaming) {
+				getOutputStream().write(bytes, offset, length);
+				return;
+			}
+
+			if(count + length > buffer.length)
+				buffer = Arrays.copyOf(buffer, Math.min(Math.max(buffer.length * 2, count + length), limit));
+
+			System.arraycopy(bytes, offset, buffer, count, length);
+			count += length;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			// nothing reaches the client before the whole body is known, unless it's streamed
+			if(streaming)
+				getOutputStream().flush();
+		}
+	}
+}
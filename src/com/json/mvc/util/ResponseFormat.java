@@ -0,0 +1,106 @@
+/*
+ * Copyright 2009 Todd McNeal
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */ 
+
+package com.json.mvc.util;
+
+import java.io.OutputStream;
+
+import flexjson.CBORTokenWriter;
+import flexjson.ContentHash;
+import flexjson.JSONTokenWriter;
+import flexjson.StreamOutputHandler;
+import flexjson.TokenWriter;
+
+/**
+ * The encodings a response can be written in.  Browsers and most clients get JSON text, while callers
+ * asking for CBOR in their Accept header get the same document in a binary form that is smaller on the
+ * wire and cheaper to decode.
+ */
+public enum ResponseFormat {
+	JSON("application/json") {
+		public TokenWriter newTokenWriter(OutputStream out, ContentHash hash) {
+			return new JSONTokenWriter(new StreamOutputHandler(out, hash));
+		}
+	},
+	CBOR("application/cbor") {
+		public TokenWriter newTokenWriter(OutputStream out, ContentHash hash) {
+			return new CBORTokenWriter(out, hash);
+		}
+	};
+
+	private final String contentType;
+
+	private ResponseFormat(String contentType) {
+		this.contentType = contentType;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @param out the stream receiving the response
+	 * @param hash the hash to add the response to, or null to hash nothing
+	 * @return a token writer writing a serialized response in this format
+	 */
+	public abstract TokenWriter newTokenWriter(OutputStream out, ContentHash hash);
+
+	/**
+	 * Picks the format for an Accept header.  CBOR is only chosen when the header asks for it by name and
+	 * ranks it above JSON, or at least as high as any wildcard, so anything else keeps getting JSON.
+	 *
+	 * @param accept the Accept header of the request, may be null
+	 * @return the format to respond in
+	 */
+	public static ResponseFormat forAccept(String accept) {
+		if(accept == null)
+			return JSON;
+
+		float cbor = 0;
+		float json = 0;
+		float wildcard = 0;
+
+		for(String range : accept.split(",")) {
+			String[] parameters = range.split(";");
+			String type = parameters[0].trim().toLowerCase();
+			float quality = quality(parameters);
+
+			if(type.equals(CBOR.contentType))
+				cbor = Math.max(cbor, quality);
+			else if(type.equals(JSON.contentType))
+				json = Math.max(json, quality);
+			else if(type.equals("*/*") || type.equals("application/*"))
+				wildcard = Math.max(wildcard, quality);
+		}
+
+		return cbor > 0 && cbor > json && cbor >= wildcard ? CBOR : JSON;
+	}
+
+	private static float quality(String[] parameters) {
+		for(int i = 1; i < parameters.length; i++) {
+			String parameter = parameters[i].trim();
+			if(parameter.startsWith("q=")) {
+				try {
+					return Float.parseFloat(parameter.substring(2));
+				} catch(NumberFormatException ex) {
+					return 0;
+				}
+			}
+		}
+
+		return 1;
+	}
+}
@@ -0,0 +1,70 @@
+package flexjson;
+
+/**
+ * Internal class used by Flexjson to hand out the byte chunks and char buffers output handlers
+ * write into.  Each thread keeps the last chunk and the largest char buffer it gave back, so a
+ * busy thread serializing one response after another doesn't allocate and grow fresh buffers
+ * every time.  Char buffers larger than {@link #MAX_RETAINED_CHARS} are left to the garbage
+ * collector so one huge response doesn't pin its buffer to the thread for good.
+ */
+final class BufferPool {
+
+    static final int CHUNK_SIZE = 8192;
+
+    /**
+     * The size of char buffers handed out when no larger one was asked for.
+     */
+    static final int MIN_CHARS = 1024;
+
+    /**
+     * The largest char buffer a thread holds on to, 256K chars or 512KB.
+     */
+    static final int MAX_RETAINED_CHARS = 256 * 1024;
+
+    private static final ThreadLocal<byte[]> chunks = new ThreadLocal<byte[]>();
+    private static final ThreadLocal<char[]> chars = new ThreadLocal<char[]>();
+
+    private BufferPool() {
+    }
+
+    static byte[] takeChunk() {
+        byte[] chunk = chunks.get();
+        if( chunk != null ) {
+            chunks.set( null );
+            return chunk;
+        }
+        return new byte[ CHUNK_SIZE ];
+    }
+
+    static void releaseChunk( byte[] chunk ) {
+        if( chunk.length == CHUNK_SIZE ) {
+            chunks.set( chunk );
+        }
+    }
+
+    /**
+     * @return the buffer of this thread if it has one of at least the given length, otherwise a
+     * new buffer of that length, or MIN_CHARS if that's larger.
+     */
+    static char[] takeChars( int length ) {
+        char[] buffer = chars.get();
+        if( buffer != null && buffer.length >= length ) {
+            chars.set( null );
+            return buffer;
+        }
+        return new char[ Math.max( length, MIN_CHARS ) ];
+    }
+
+    /**
+     * Keeps the buffer for this thread if it's larger than the one it has and not larger than
+     * MAX_RETAINED_CHARS.  The caller must not use the buffer afterwards.
+     */
+    static void releaseChars( char[] buffer ) {
+        if( buffer.length <= MAX_RETAINED_CHARS ) {
+            char[] retained = chars.get();
+            if( retained == null || retained.length < buffer.length ) {
+                chars.set( buffer );
+            }
+        }
+    }
+}
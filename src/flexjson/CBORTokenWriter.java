@@ -0,0 +1,635 @@
+package flexjson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams the document to an {@link OutputStream} encoded as CBOR (RFC 8949) rather than JSON
+ * text.  Each token handed over is written as a data item straight away, so includes, excludes,
+ * transformers, references and parallel serialization shape the output exactly as they shape
+ * JSON.  Objects and arrays are written with indefinite lengths since their size isn't known
+ * until they end, strings as UTF-8 text, binary data as byte strings, integers in the fewest
+ * bytes that hold them and floating point numbers as single precision floats when that holds
+ * them exactly, otherwise as doubles.  Integers past 64 bits become bignums, and decimals that a
+ * double would round a decimal fraction.  NaN and the infinities, which JSON has no literal for,
+ * are written as the floats they are.  Raw JSON fragments, and the text transformers make of
+ * numbers, are the only things read as text, they are encoded token by token as they're
+ * copied.  Given a {@link flexjson.ContentHash} the writer hashes each chunk as it goes to the
+ * stream.  The stream itself is neither flushed nor closed.
+ */
+public class CBORTokenWriter implements TokenWriter {
+
+    private static final int UNSIGNED = 0;
+    private static final int NEGATIVE = 1;
+    private static final int BYTES = 2;
+    private static final int TEXT = 3;
+    private static final int ARRAY = 4;
+    private static final int TAG = 6;
+
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int NULL = 0xF6;
+    private static final int FLOAT32 = 0xFA;
+    private static final int FLOAT64 = 0xFB;
+    private static final int INDEFINITE_MAP = 0xBF;
+    private static final int INDEFINITE_ARRAY = 0x9F;
+    private static final int BREAK = 0xFF;
+
+    private static final int POSITIVE_BIGNUM = 2;
+    private static final int NEGATIVE_BIGNUM = 3;
+    private static final int DECIMAL_FRACTION = 4;
+
+    private static final BigInteger UNSIGNED_LIMIT = BigInteger.ONE.shiftLeft( 64 );
+
+    private OutputStream stream;
+    private ContentHash hash;
+    private byte[] buffer;
+    private int position = 0;
+    private long drained = 0;
+    private Transcoder transcoder;
+
+    public CBORTokenWriter( OutputStream stream ) {
+        this.stream = stream;
+    }
+
+    /**
+     * @param hash the hash to add every byte written to the stream to, may be null.
+     */
+    public CBORTokenWriter( OutputStream stream, ContentHash hash ) {
+        this.stream = stream;
+        this.hash = hash;
+    }
+
+    public void beginObject() {
+        put( INDEFINITE_MAP );
+    }
+
+    public void endObject() {
+        put( BREAK );
+    }
+
+    public void beginArray() {
+        put( INDEFINITE_ARRAY );
+    }
+
+    public void endArray() {
+        put( BREAK );
+    }
+
+    public void key( String name ) {
+        text( name );
+    }
+
+    public void string( String value ) {
+        text( value );
+    }
+
+    public void string( char[] chars, int start, int end ) {
+        text( CharBuffer.wrap( chars, start, end - start ) );
+    }
+
+    public void number( long value ) {
+        if( value < 0 ) {
+            header( NEGATIVE, -1 - value );
+        } else {
+            header( UNSIGNED, value );
+        }
+    }
+
+    public void number( double value ) {
+        floating( value );
+    }
+
+    public void number( float value ) {
+        put( FLOAT32 );
+        bigEndian( Float.floatToIntBits( value ) & 0xFFFFFFFFL, 4 );
+    }
+
+    public void number( Number value ) {
+        if( value instanceof BigInteger ) {
+            integer( (BigInteger) value );
+        } else if( value instanceof BigDecimal ) {
+            decimal( (BigDecimal) value );
+        } else if( value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+                || value instanceof AtomicInteger || value instanceof AtomicLong ) {
+            number( value.longValue() );
+        } else if( value instanceof Double || value instanceof Float ) {
+            floating( value.doubleValue() );
+        } else {
+            try {
+                decimal( new BigDecimal( value.toString() ) );
+            } catch( NumberFormatException e ) {
+                throw new JSONException( "Can't encode " + value + " as CBOR, it isn't a decimal number" );
+            }
+        }
+    }
+
+    public void bool( boolean value ) {
+        put( value ? TRUE : FALSE );
+    }
+
+    public void nul() {
+        put( NULL );
+    }
+
+    public void bytes( byte[] bytes, int offset, int length ) {
+        header( BYTES, length );
+        put( bytes, offset, length );
+    }
+
+    /**
+     * See {@link #bytes(byte[], int, int)}.  Buffers that aren't backed by an array are read
+     * through a duplicate straight into the chunk being written.
+     */
+    public void bytes( ByteBuffer bytes ) {
+        header( BYTES, bytes.remaining() );
+        if( bytes.hasArray() ) {
+            put( bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining() );
+            return;
+        }
+        ByteBuffer source = bytes.duplicate();
+        while( source.hasRemaining() ) {
+            ensure( 1 );
+            int count = Math.min( source.remaining(), buffer.length - position );
+            source.get( buffer, position, count );
+            position += count;
+        }
+    }
+
+    /**
+     * Reads the fragment as JSON text and writes each of its tokens as it comes, or null when
+     * the fragment is empty.
+     */
+    public void raw( RawJson json ) {
+        if( json.isEmpty() ) {
+            nul();
+            return;
+        }
+        if( transcoder == null ) {
+            transcoder = new Transcoder();
+        }
+        json.write( transcoder );
+        transcoder.end();
+    }
+
+    /**
+     * Buffers in a ByteArrayOutputStream.  Elements of a CBOR array simply follow one another,
+     * so the bytes it holds are appended as they are.
+     */
+    public TokenWriter newBuffer() {
+        return new CBORTokenWriter( new ByteArrayOutputStream() );
+    }
+
+    public void append( TokenWriter buffer ) {
+        CBORTokenWriter other = (CBORTokenWriter) buffer;
+        other.flush();
+        byte[] bytes = ((ByteArrayOutputStream) other.stream).toByteArray();
+        put( bytes, 0, bytes.length );
+    }
+
+    /**
+     * Writes out what's buffered and gives the chunk back to the pool.
+     */
+    public void flush() {
+        if( buffer != null ) {
+            drain();
+            BufferPool.releaseChunk( buffer );
+            buffer = null;
+        }
+    }
+
+    /**
+     * Unlike {@link #flush()} this keeps the chunk, so writing can carry on afterwards.
+     */
+    public void flushDestination() {
+        drain();
+        try {
+            stream.flush();
+        } catch( IOException e ) {
+            throw new JSONException( "Could not flush serialized output", e );
+        }
+    }
+
+    public long getLength() {
+        return drained + position;
+    }
+
+    /**
+     * Writes the characters as UTF-8 text.  Characters that can't be encoded, like unpaired
+     * surrogates, are written as '?' just as {@link flexjson.StreamOutputHandler} does.
+     */
+    private void text( CharSequence value ) {
+        int end = value.length();
+        long length = 0;
+        for( int i = 0; i < end; i++ ) {
+            char c = value.charAt( i );
+            if( c < 0x80 ) {
+                length++;
+            } else if( c < 0x800 ) {
+                length += 2;
+            } else if( Character.isHighSurrogate( c ) && i + 1 < end && Character.isLowSurrogate( value.charAt( i + 1 ) ) ) {
+                length += 4;
+                i++;
+            } else if( Character.isSurrogate( c ) ) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        header( TEXT, length );
+        for( int i = 0; i < end; i++ ) {
+            char c = value.charAt( i );
+            if( c < 0x80 ) {
+                put( c );
+            } else if( c < 0x800 ) {
+                ensure( 2 );
+                buffer[ position++ ] = (byte) ( 0xC0 | ( c >> 6 ) );
+                buffer[ position++ ] = (byte) ( 0x80 | ( c & 0x3F ) );
+            } else if( Character.isHighSurrogate( c ) && i + 1 < end && Character.isLowSurrogate( value.charAt( i + 1 ) ) ) {
+                int codePoint = Character.toCodePoint( c, value.charAt( ++i ) );
+                ensure( 4 );
+                buffer[ position++ ] = (byte) ( 0xF0 | ( codePoint >> 18 ) );
+                buffer[ position++ ] = (byte) ( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+                buffer[ position++ ] = (byte) ( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+                buffer[ position++ ] = (byte) ( 0x80 | ( codePoint & 0x3F ) );
+            } else if( Character.isSurrogate( c ) ) {
+                put( '?' );
+            } else {
+                ensure( 3 );
+                buffer[ position++ ] = (byte) ( 0xE0 | ( c >> 12 ) );
+                buffer[ position++ ] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+                buffer[ position++ ] = (byte) ( 0x80 | ( c & 0x3F ) );
+            }
+        }
+    }
+
+    /**
+     * Writes a decimal without a fraction or exponent, like 12 rather than 12.0 or 1.2E1, as an
+     * integer, others as a float when the double nearest to them reads back as the same decimal,
+     * otherwise as a decimal fraction.
+     */
+    private void decimal( BigDecimal value ) {
+        if( value.scale() == 0 ) {
+            integer( value.unscaledValue() );
+            return;
+        }
+        double d = value.doubleValue();
+        // a double doesn't keep every decimal of up to 17 digits, 0.12345678901234567 comes back changed
+        if( !Double.isInfinite( d ) && new BigDecimal( Double.toString( d ) ).compareTo( value ) == 0 ) {
+            floating( d );
+        } else {
+            // a double would round it, so it goes as [exponent, mantissa] scaled by 10
+            header( TAG, DECIMAL_FRACTION );
+            put( ( ARRAY << 5 ) | 2 );
+            integer( BigInteger.valueOf( -value.scale() ) );
+            integer( value.unscaledValue() );
+        }
+    }
+
+    private void integer( BigInteger value ) {
+        if( value.signum() >= 0 ) {
+            if( value.compareTo( UNSIGNED_LIMIT ) < 0 ) {
+                header( UNSIGNED, value.longValue() );
+            } else {
+                bignum( POSITIVE_BIGNUM, value );
+            }
+        } else {
+            BigInteger encoded = value.negate().subtract( BigInteger.ONE );
+            if( encoded.compareTo( UNSIGNED_LIMIT ) < 0 ) {
+                header( NEGATIVE, encoded.longValue() );
+            } else {
+                bignum( NEGATIVE_BIGNUM, encoded );
+            }
+        }
+    }
+
+    private void bignum( int tag, BigInteger magnitude ) {
+        byte[] bytes = magnitude.toByteArray();
+        // toByteArray leads with a zero byte when the top bit is set, which CBOR doesn't want
+        int start = bytes[0] == 0 ? 1 : 0;
+        header( TAG, tag );
+        header( BYTES, bytes.length - start );
+        for( int i = start; i < bytes.length; i++ ) {
+            put( bytes[i] );
+        }
+    }
+
+    /**
+     * Writes the value as a single precision float when that holds it exactly, otherwise as a
+     * double.
+     */
+    private void floating( double value ) {
+        float single = (float) value;
+        if( single == value || Double.isNaN( value ) ) {
+            put( FLOAT32 );
+            bigEndian( Float.floatToIntBits( single ) & 0xFFFFFFFFL, 4 );
+        } else {
+            put( FLOAT64 );
+            bigEndian( Double.doubleToLongBits( value ), 8 );
+        }
+    }
+
+    /**
+     * Writes the initial byte of a data item of the given major type with its argument, the
+     * length or value, in the fewest bytes.  The argument is unsigned, so negative longs stand
+     * for values from 2^63 up.
+     */
+    private void header( int major, long argument ) {
+        int type = major << 5;
+        if( argument >= 0 && argument < 24 ) {
+            put( type | (int) argument );
+        } else if( argument >= 0 && argument < 0x100 ) {
+            put( type | 24 );
+            put( (int) argument );
+        } else if( argument >= 0 && argument < 0x10000 ) {
+            put( type | 25 );
+            bigEndian( argument, 2 );
+        } else if( argument >= 0 && argument < 0x100000000L ) {
+            put( type | 26 );
+            bigEndian( argument, 4 );
+        } else {
+            put( type | 27 );
+            bigEndian( argument, 8 );
+        }
+    }
+
+    private void bigEndian( long value, int bytes ) {
+        ensure( bytes );
+        for( int shift = ( bytes - 1 ) * 8; shift >= 0; shift -= 8 ) {
+            buffer[ position++ ] = (byte) ( value >>> shift );
+        }
+    }
+
+    private void put( int b ) {
+        ensure( 1 );
+        buffer[ position++ ] = (byte) b;
+    }
+
+    private void put( byte[] bytes, int offset, int length ) {
+        while( length > 0 ) {
+            ensure( 1 );
+            int count = Math.min( length, buffer.length - position );
+            System.arraycopy( bytes, offset, buffer, position, count );
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private void ensure( int length ) {
+        if( buffer == null ) {
+            buffer = BufferPool.takeChunk();
+        } else if( buffer.length - position < length ) {
+            drain();
+        }
+    }
+
+    private void drain() {
+        if( position > 0 ) {
+            if( hash != null ) {
+                hash.update( buffer, 0, position );
+            }
+            try {
+                stream.write( buffer, 0, position );
+            } catch( IOException e ) {
+                throw new JSONException( "Could not write serialized output", e );
+            }
+            drained += position;
+            position = 0;
+        }
+    }
+
+    /**
+     * Reads the JSON text of raw fragments a character at a time and writes each token as soon
+     * as it's complete.  Keys and strings are both written as text, and commas and colons are
+     * skipped, since CBOR needs neither to tell them apart.
+     */
+    private final class Transcoder implements OutputHandler {
+
+        // what the characters handed over belong to
+        private static final int BETWEEN = 0;
+        private static final int STRING = 1;
+        private static final int ESCAPE = 2;
+        private static final int UNICODE = 3;
+        private static final int LITERAL = 4;
+
+        private int state = BETWEEN;
+        private char[] token = new char[ 64 ];
+        private int tokenLength = 0;
+        private int unicode;
+        private int unicodeDigits;
+
+        public OutputHandler write( char c ) {
+            accept( c );
+            return this;
+        }
+
+        public OutputHandler write( String text ) {
+            return write( text, 0, text.length() );
+        }
+
+        public OutputHandler write( String text, int start, int end ) {
+            int i = start;
+            while( i < end ) {
+                if( state == STRING ) {
+                    // the characters of a string up to its end or an escape go in one copy
+                    int run = i;
+                    while( run < end ) {
+                        char c = text.charAt( run );
+                        if( c == '\"' || c == '\\' ) break;
+                        run++;
+                    }
+                    if( run > i ) {
+                        reserve( run - i );
+                        text.getChars( i, run, token, tokenLength );
+                        tokenLength += run - i;
+                        i = run;
+                        continue;
+                    }
+                }
+                accept( text.charAt( i++ ) );
+            }
+            return this;
+        }
+
+        public OutputHandler write( char[] chars, int start, int end ) {
+            for( int i = start; i < end; i++ ) {
+                accept( chars[i] );
+            }
+            return this;
+        }
+
+        public void flush() {
+            end();
+        }
+
+        public void flushDestination() {
+            end();
+        }
+
+        public long getLength() {
+            return CBORTokenWriter.this.getLength();
+        }
+
+        /**
+         * Writes the last token, a lone number or literal having nothing after it to end it.
+         */
+        void end() {
+            if( state == LITERAL ) {
+                literal();
+            }
+            state = BETWEEN;
+        }
+
+        private void accept( char c ) {
+            switch( state ) {
+                case STRING:
+                    if( c == '\"' ) {
+                        text( CharBuffer.wrap( token, 0, tokenLength ) );
+                        state = BETWEEN;
+                    } else if( c == '\\' ) {
+                        state = ESCAPE;
+                    } else {
+                        append( c );
+                    }
+                    break;
+                case ESCAPE:
+                    state = STRING;
+                    switch( c ) {
+                        case 'b': append( '\b' ); break;
+                        case 'f': append( '\f' ); break;
+                        case 'n': append( '\n' ); break;
+                        case 'r': append( '\r' ); break;
+                        case 't': append( '\t' ); break;
+                        case 'u':
+                            unicode = 0;
+                            unicodeDigits = 0;
+                            state = UNICODE;
+                            break;
+                        default: append( c );
+                    }
+                    break;
+                case UNICODE:
+                    unicode = ( unicode << 4 ) | Character.digit( c, 16 );
+                    if( ++unicodeDigits == 4 ) {
+                        append( (char) unicode );
+                        state = STRING;
+                    }
+                    break;
+                case LITERAL:
+                    if( c == ',' || c == ':' || c == '}' || c == ']' || Character.isWhitespace( c ) ) {
+                        literal();
+                        state = BETWEEN;
+                        between( c );
+                    } else {
+                        append( c );
+                    }
+                    break;
+                default:
+                    between( c );
+            }
+        }
+
+        private void between( char c ) {
+            switch( c ) {
+                case '{':
+                    beginObject();
+                    break;
+                case '[':
+                    beginArray();
+                    break;
+                case '}':
+                case ']':
+                    put( BREAK );
+                    break;
+                case '\"':
+                    tokenLength = 0;
+                    state = STRING;
+                    break;
+                case ',':
+                case ':':
+                    break;
+                default:
+                    if( !Character.isWhitespace( c ) ) {
+                        tokenLength = 0;
+                        append( c );
+                        state = LITERAL;
+                    }
+            }
+        }
+
+        private void append( char c ) {
+            reserve( 1 );
+            token[ tokenLength++ ] = c;
+        }
+
+        private void reserve( int length ) {
+            if( tokenLength + length > token.length ) {
+                char[] grown = new char[ Math.max( token.length * 2, tokenLength + length ) ];
+                System.arraycopy( token, 0, grown, 0, tokenLength );
+                token = grown;
+            }
+        }
+
+        /**
+         * Writes the literal or number read into token.
+         */
+        private void literal() {
+            if( integer() ) {
+                return;
+            }
+            String literal = new String( token, 0, tokenLength );
+            if( literal.equals( "true" ) ) {
+                bool( true );
+            } else if( literal.equals( "false" ) ) {
+                bool( false );
+            } else if( literal.equals( "null" ) ) {
+                nul();
+            } else if( literal.equals( "NaN" ) ) {
+                floating( Double.NaN );
+            } else if( literal.equals( "Infinity" ) ) {
+                floating( Double.POSITIVE_INFINITY );
+            } else if( literal.equals( "-Infinity" ) ) {
+                floating( Double.NEGATIVE_INFINITY );
+            } else {
+                try {
+                    decimal( new BigDecimal( literal ) );
+                } catch( NumberFormatException e ) {
+                    throw new JSONException( "Can't encode " + literal + " as CBOR, it's neither a number nor a literal" );
+                }
+            }
+        }
+
+        /**
+         * Writes token as an integer if it's one that fits in a long, which is what nearly all
+         * integers are, without making a String of it first.
+         *
+         * @return false if token is something else.
+         */
+        private boolean integer() {
+            boolean negative = token[0] == '-';
+            int start = negative ? 1 : 0;
+            // 18 digits always fit in a long
+            if( tokenLength == start || tokenLength - start > 18 ) {
+                return false;
+            }
+            long value = 0;
+            for( int i = start; i < tokenLength; i++ ) {
+                char c = token[i];
+                if( c < '0' || c > '9' ) {
+                    return false;
+                }
+                value = value * 10 + ( c - '0' );
+            }
+            number( negative ? -value : value );
+            return true;
+        }
+    }
+}
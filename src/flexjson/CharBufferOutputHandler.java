@@ -0,0 +1,117 @@
+package flexjson;
+
+/**
+ * Internal class used by {@link flexjson.JSONSerializer} to collect output returned as a String
+ * in a char buffer taken from the {@link BufferPool}.  The buffer starts out at the size the
+ * caller expects the output to have, so it rarely grows, and goes back to the pool once the
+ * String has been made with {@link #release()}.  Output outgrowing the largest buffer the pool
+ * keeps moves on to a StringBuilder, which holds mostly ASCII JSON in half the memory.
+ */
+final class CharBufferOutputHandler implements OutputHandler {
+
+    private char[] buffer;
+    private int position = 0;
+    private StringBuilder overflow;
+
+    CharBufferOutputHandler( int expectedLength ) {
+        if( expectedLength > BufferPool.MAX_RETAINED_CHARS ) {
+            overflow = new StringBuilder( expectedLength );
+        } else {
+            buffer = BufferPool.takeChars( expectedLength );
+        }
+    }
+
+    public OutputHandler write( char c ) {
+        if( overflow != null ) {
+            overflow.append( c );
+            return this;
+        }
+        if( position == buffer.length ) {
+            grow( 1 );
+            if( overflow != null ) {
+                overflow.append( c );
+                return this;
+            }
+        }
+        buffer[ position++ ] = c;
+        return this;
+    }
+
+    public OutputHandler write( String text ) {
+        return write( text, 0, text.length() );
+    }
+
+    public OutputHandler write( String text, int start, int end ) {
+        if( overflow != null ) {
+            overflow.append( text, start, end );
+            return this;
+        }
+        int length = end - start;
+        if( length > buffer.length - position ) {
+            grow( length );
+            if( overflow != null ) {
+                overflow.append( text, start, end );
+                return this;
+            }
+        }
+        text.getChars( start, end, buffer, position );
+        position += length;
+        return this;
+    }
+
+    public OutputHandler write( char[] chars, int start, int end ) {
+        if( overflow != null ) {
+            overflow.append( chars, start, end - start );
+            return this;
+        }
+        int length = end - start;
+        if( length > buffer.length - position ) {
+            grow( length );
+            if( overflow != null ) {
+                overflow.append( chars, start, length );
+                return this;
+            }
+        }
+        System.arraycopy( chars, start, buffer, position, length );
+        position += length;
+        return this;
+    }
+
+    public void flush() {
+    }
+
+    public void flushDestination() {
+    }
+
+    public long getLength() {
+        return overflow != null ? overflow.length() : position;
+    }
+
+    public String toString() {
+        return overflow != null ? overflow.toString() : new String( buffer, 0, position );
+    }
+
+    /**
+     * Gives the buffer back to the pool.  Nothing can be written or read afterwards.
+     */
+    public void release() {
+        if( buffer != null ) {
+            BufferPool.releaseChars( buffer );
+            buffer = null;
+        }
+    }
+
+    private void grow( int length ) {
+        int capacity = Math.max( buffer.length * 2, position + length );
+        if( capacity > BufferPool.MAX_RETAINED_CHARS ) {
+            overflow = new StringBuilder( buffer.length * 2 );
+            overflow.append( buffer, 0, position );
+            release();
+            return;
+        }
+        char[] grown = new char[ capacity ];
+        System.arraycopy( buffer, 0, grown, 0, position );
+        BufferPool.releaseChars( buffer );
+        buffer = grown;
+    }
+}
@@ -0,0 +1,81 @@
+package flexjson;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Internal class used by {@link flexjson.JSONSerializer} to hold everything derived from its
+ * include and exclude expressions: the compiled {@link PathMatcher}, the serialization plans
+ * built against it and a running estimate of the output length for each type of root object.  A serializer compiles its configuration the first time it's used and
+ * drops it whenever its configuration changes, so a serialization already running keeps using
+ * the configuration it started with.
+ */
+final class CompiledConfiguration {
+
+    private final PathMatcher matcher;
+    private final Map<Class<?>,SerializationPlan> shallowPlans = new ConcurrentHashMap<Class<?>,SerializationPlan>();
+    private final Map<Class<?>,SerializationPlan> deepPlans = new ConcurrentHashMap<Class<?>,SerializationPlan>();
+    private final SizeEstimates shallowSizes = new SizeEstimates();
+    private final SizeEstimates deepSizes = new SizeEstimates();
+    private final SizeEstimates prettySizes = new SizeEstimates();
+
+    CompiledConfiguration( List<PathExpression> pathExpressions ) {
+        this.matcher = new PathMatcher( pathExpressions );
+    }
+
+    public PathMatcher getMatcher() {
+        return matcher;
+    }
+
+    public Map<Class<?>,SerializationPlan> getPlans( boolean deep ) {
+        return deep ? deepPlans : shallowPlans;
+    }
+
+    /**
+     * @return the output length estimates for the given kind of serialization.
+     */
+    public SizeEstimates getSizes( boolean deep, boolean prettyPrint ) {
+        return prettyPrint ? prettySizes : deep ? deepSizes : shallowSizes;
+    }
+
+    /**
+     * A running estimate of the output length for each type of root object.
+     */
+    static final class SizeEstimates {
+        private final Map<Class<?>,SizeEstimate> sizes = new ConcurrentHashMap<Class<?>,SizeEstimate>();
+
+        /**
+         * @return the length output for roots of the given type is expected to have, with some
+         * room to spare, or 0 if none has been serialized yet.
+         */
+        public int getExpectedLength( Class<?> type ) {
+            SizeEstimate estimate = sizes.get( type );
+            return estimate == null ? 0 : estimate.length + ( estimate.length >> 2 );
+        }
+
+        /**
+         * Folds the length of an output into the estimate for its root type.  Each output
+         * weighs a quarter, so the estimate follows responses that keep growing within a few
+         * requests.
+         */
+        public void recordLength( Class<?> type, long length ) {
+            int value = (int) Math.min( length, Integer.MAX_VALUE >> 1 );
+            SizeEstimate estimate = sizes.get( type );
+            if( estimate == null ) {
+                sizes.put( type, new SizeEstimate( value ) );
+            } else {
+                // updates racing each other only lose a sample
+                estimate.length += ( value - estimate.length ) >> 2;
+            }
+        }
+    }
+
+    private static final class SizeEstimate {
+        private volatile int length;
+
+        SizeEstimate( int length ) {
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package flexjson;
+
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * An immutable snapshot of a {@link flexjson.JSONSerializer}'s configuration created with
+ * {@link flexjson.JSONSerializer#compile()}.  Its include and exclude expressions are compiled
+ * once up front and it can't be changed afterwards, so unlike JSONSerializer it's safe to share
+ * a single instance between threads and serialize with it concurrently.  The serialize methods
+ * behave exactly like the ones of the same name on JSONSerializer.
+ */
+public final class CompiledSerializer {
+
+    private final JSONSerializer serializer;
+
+    CompiledSerializer( JSONSerializer serializer ) {
+        this.serializer = serializer;
+    }
+
+    public String serialize( Object target ) {
+        return serializer.serialize( target );
+    }
+
+    public String serialize( Object target, SerializationStats stats ) {
+        return serializer.serialize( target, stats );
+    }
+
+    public String serialize( String rootName, Object target ) {
+        return serializer.serialize( rootName, target );
+    }
+
+    public void serialize( Object target, Writer out ) {
+        serializer.serialize( target, out );
+    }
+
+    public void serialize( Object target, Writer out, SerializationStats stats ) {
+        serializer.serialize( target, out, stats );
+    }
+
+    public void serialize( Object target, OutputStream out ) {
+        serializer.serialize( target, out );
+    }
+
+    public void serialize( Object target, OutputStream out, SerializationStats stats ) {
+        serializer.serialize( target, out, stats );
+    }
+
+    public void serialize( Object target, OutputStream out, SerializationStats stats, ContentHash hash ) {
+        serializer.serialize( target, out, stats, hash );
+    }
+
+    public void serialize( Object target, OutputHandler out ) {
+        serializer.serialize( target, out );
+    }
+
+    public void serialize( Object target, OutputHandler out, SerializationStats stats ) {
+        serializer.serialize( target, out, stats );
+    }
+
+    public void serialize( Object target, TokenWriter out ) {
+        serializer.serialize( target, out );
+    }
+
+    public void serialize( Object target, TokenWriter out, SerializationStats stats ) {
+        serializer.serialize( target, out, stats );
+    }
+
+    public String deepSerialize( Object target ) {
+        return serializer.deepSerialize( target );
+    }
+
+    public String deepSerialize( Object target, SerializationStats stats ) {
+        return serializer.deepSerialize( target, stats );
+    }
+
+    public String deepSerialize( String rootName, Object target ) {
+        return serializer.deepSerialize( rootName, target );
+    }
+
+    public void deepSerialize( Object target, Writer out ) {
+        serializer.deepSerialize( target, out );
+    }
+
+    public void deepSerialize( Object target, Writer out, SerializationStats stats ) {
+        serializer.deepSerialize( target, out, stats );
+    }
+
+    public void deepSerialize( Object target, OutputStream out ) {
+        serializer.deepSerialize( target, out );
+    }
+
+    public void deepSerialize( Object target, OutputStream out, SerializationStats stats ) {
+        serializer.deepSerialize( target, out, stats );
+    }
+
+    public void deepSerialize( Object target, OutputStream out, SerializationStats stats, ContentHash hash ) {
+        serializer.deepSerialize( target, out, stats, hash );
+    }
+
+    public void deepSerialize( Object target, OutputHandler out ) {
+        serializer.deepSerialize( target, out );
+    }
+
+    public void deepSerialize( Object target, OutputHandler out, SerializationStats stats ) {
+        serializer.deepSerialize( target, out, stats );
+    }
+
+    public void deepSerialize( Object target, TokenWriter out ) {
+        serializer.deepSerialize( target, out );
+    }
+
+    public void deepSerialize( Object target, TokenWriter out, SerializationStats stats ) {
+        serializer.deepSerialize( target, out, stats );
+    }
+
+    public String prettyPrint( Object target ) {
+        return serializer.prettyPrint( target );
+    }
+
+    public String prettyPrint( String rootName, Object target ) {
+        return serializer.prettyPrint( rootName, target );
+    }
+}
@@ -0,0 +1,149 @@
+package flexjson;
+
+/**
+ * A 128 bit MurmurHash3 (the x64 variant, seed 0) of the bytes a serialization writes to an
+ * OutputStream, worked out chunk by chunk as {@link flexjson.StreamOutputHandler} hands the
+ * encoded output to the stream, so hashing a response doesn't take another pass over it.  It's
+ * fast and spreads well enough to tell two documents apart for caching, as in an HTTP entity
+ * tag, but isn't a cryptographic hash and mustn't be used where someone could gain from forging
+ * a collision.  Pass a fresh instance to one of the serialize methods of
+ * {@link flexjson.JSONSerializer} that take one and read {@link #getValue()} once it returns.
+ */
+public final class ContentHash {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private long h1 = 0;
+    private long h2 = 0;
+    private long length = 0;
+    // bytes of an incomplete 16 byte block carried over to the next update
+    private final byte[] tail = new byte[ 16 ];
+    private int tailLength = 0;
+
+    public void update( byte[] bytes, int offset, int count ) {
+        int end = offset + count;
+        length += count;
+        if( tailLength > 0 ) {
+            int copied = Math.min( count, 16 - tailLength );
+            System.arraycopy( bytes, offset, tail, tailLength, copied );
+            tailLength += copied;
+            offset += copied;
+            if( tailLength < 16 ) {
+                return;
+            }
+            block( tail, 0 );
+            tailLength = 0;
+        }
+        for( ; offset + 16 <= end; offset += 16 ) {
+            block( bytes, offset );
+        }
+        tailLength = end - offset;
+        System.arraycopy( bytes, offset, tail, 0, tailLength );
+    }
+
+    /**
+     * Starts over as if nothing had been hashed.
+     */
+    public void reset() {
+        h1 = 0;
+        h2 = 0;
+        length = 0;
+        tailLength = 0;
+    }
+
+    /**
+     * @return the number of bytes hashed so far.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return the hash of the bytes so far as 32 lower case hex digits.  Hashing can carry on
+     * afterwards.
+     */
+    public String getValue() {
+        long k1 = 0;
+        long k2 = 0;
+        for( int i = tailLength - 1; i >= 8; i-- ) {
+            k2 = ( k2 << 8 ) | ( tail[i] & 0xFF );
+        }
+        for( int i = Math.min( tailLength, 8 ) - 1; i >= 0; i-- ) {
+            k1 = ( k1 << 8 ) | ( tail[i] & 0xFF );
+        }
+        long a = h1 ^ mixK1( k1 );
+        long b = h2 ^ mixK2( k2 );
+        a ^= length;
+        b ^= length;
+        a += b;
+        b += a;
+        a = fmix( a );
+        b = fmix( b );
+        a += b;
+        b += a;
+        char[] hex = new char[ 32 ];
+        littleEndianHex( a, hex, 0 );
+        littleEndianHex( b, hex, 16 );
+        return new String( hex );
+    }
+
+    public String toString() {
+        return getValue();
+    }
+
+    private void block( byte[] bytes, int offset ) {
+        long k1 = littleEndianLong( bytes, offset );
+        long k2 = littleEndianLong( bytes, offset + 8 );
+        h1 ^= mixK1( k1 );
+        h1 = Long.rotateLeft( h1, 27 );
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+        h2 ^= mixK2( k2 );
+        h2 = Long.rotateLeft( h2, 31 );
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private static long mixK1( long k1 ) {
+        k1 *= C1;
+        k1 = Long.rotateLeft( k1, 31 );
+        return k1 * C2;
+    }
+
+    private static long mixK2( long k2 ) {
+        k2 *= C2;
+        k2 = Long.rotateLeft( k2, 33 );
+        return k2 * C1;
+    }
+
+    private static long fmix( long k ) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long littleEndianLong( byte[] bytes, int offset ) {
+        long value = 0;
+        for( int i = offset + 7; i >= offset; i-- ) {
+            value = ( value << 8 ) | ( bytes[i] & 0xFF );
+        }
+        return value;
+    }
+
+    /**
+     * Writes the bytes of the value lowest first, the order the reference implementation
+     * lays the hash out in memory.
+     */
+    private static void littleEndianHex( long value, char[] hex, int position ) {
+        for( int i = 0; i < 8; i++ ) {
+            int b = (int) ( value >>> ( i * 8 ) ) & 0xFF;
+            hex[ position++ ] = HEX[ b >>> 4 ];
+            hex[ position++ ] = HEX[ b & 0xF ];
+        }
+    }
+}
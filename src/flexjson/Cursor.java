@@ -0,0 +1,13 @@
+package flexjson;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * An iterator over a resource that has to be released once it's been read, like the rows of
+ * a database cursor.  {@link flexjson.JSONSerializer} serializes a cursor as a JSON array,
+ * pulling one element at a time so the elements never have to be held in memory all at once,
+ * and closes it when it's done, even when serialization fails part way through.
+ */
+public interface Cursor<T> extends Iterator<T>, Closeable {
+}
@@ -1,17 +1,56 @@
 package flexjson;
 
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Date;
 
+/**
+ * Transforms dates into strings using a {@link SimpleDateFormat} pattern.  SimpleDateFormat
+ * isn't thread safe so every thread formats with its own copy, which lets one transformer,
+ * and the serializer holding it, be shared by concurrent requests.  Besides {@link Date} and
+ * the epoch millis the serializer hands over for dates, it also accepts {@link Instant},
+ * {@link ZonedDateTime}, {@link OffsetDateTime}, and {@link LocalDateTime} or {@link LocalDate}
+ * which are taken to be in the default time zone.
+ */
 public class DateTransformer implements Transformer {
-    SimpleDateFormat simpleDateFormatter;
+    private final String dateFormat;
+    private final ThreadLocal<SimpleDateFormat> formatters;
 
-
-    public DateTransformer( String dateFormat ) {
-        simpleDateFormatter = new SimpleDateFormat( dateFormat );
+    public DateTransformer( final String dateFormat ) {
+        this.dateFormat = dateFormat;
+        final SimpleDateFormat prototype = new SimpleDateFormat( dateFormat );
+        this.formatters = new ThreadLocal<SimpleDateFormat>() {
+            protected SimpleDateFormat initialValue() {
+                return (SimpleDateFormat) prototype.clone();
+            }
+        };
     }
 
+    public String getDateFormat() {
+        return dateFormat;
+    }
 
     public String transform(Object value) {
-        return simpleDateFormatter.format( value );
+        return formatters.get().format( toDate( value ) );
+    }
+
+    private Object toDate( Object value ) {
+        if( value instanceof Instant ) {
+            return Date.from( (Instant) value );
+        } else if( value instanceof ZonedDateTime ) {
+            return Date.from( ((ZonedDateTime) value).toInstant() );
+        } else if( value instanceof OffsetDateTime ) {
+            return Date.from( ((OffsetDateTime) value).toInstant() );
+        } else if( value instanceof LocalDateTime ) {
+            return Date.from( ((LocalDateTime) value).atZone( ZoneId.systemDefault() ).toInstant() );
+        } else if( value instanceof LocalDate ) {
+            return Date.from( ((LocalDate) value).atStartOfDay( ZoneId.systemDefault() ).toInstant() );
+        }
+        return value;
     }
 }
@@ -0,0 +1,189 @@
+package flexjson;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Base class of the accessors {@link flexjson.processor.JSONProcessor} generates at compile
+ * time for classes annotated with {@link flexjson.JSON}.  A generated accessor lists the bean
+ * properties and public fields of its class in the order {@link java.beans.Introspector} and
+ * reflection would find them, and reads them with plain method calls and field reads compiled
+ * into a switch.  {@link flexjson.JSONSerializer} looks for the accessor of a class the first
+ * time it serializes an instance, and uses it instead of introspecting the class when there is
+ * one.  Include and exclude expressions, transformers and the rest of the configuration apply
+ * exactly as they do to classes serialized through reflection.
+ * <p>
+ * Only the reading of values is generated.  Writing them, with the keys, separators and
+ * escaping, is still done by the serializer for generated classes just as for any other, and
+ * there are no generated serializers writing a class straight to the output.
+ * </p>
+ * <p>
+ * The accessor of a class com.acme.Order is com.acme.Order_JSONAccessor, and the one of a
+ * nested class com.acme.Order.Line is com.acme.Order_Line_JSONAccessor.  There is no need to
+ * use or extend this class directly.
+ * </p>
+ */
+public abstract class GeneratedAccessor {
+
+    /**
+     * Appended to the name of a class, nesting replaced by underscores, to name its accessor.
+     */
+    public static final String SUFFIX = "_JSONAccessor";
+
+    public static final int OBJECT = 0;
+    public static final int INT = 1;
+    public static final int LONG = 2;
+    public static final int FLOAT = 3;
+    public static final int DOUBLE = 4;
+    public static final int TYPE_MASK = 7;
+
+    /**
+     * The property type is an array, collection, map, iterator, spliterator or stream, which
+     * shallow serialization leaves out by default.
+     */
+    public static final int CONTAINER = 8;
+
+    /**
+     * The getter is annotated with @JSON(include=true).
+     */
+    public static final int INCLUDE = 16;
+
+    /**
+     * The getter is annotated with @JSON(include=false).
+     */
+    public static final int EXCLUDE = 32;
+
+    /**
+     * A public field rather than a bean property.
+     */
+    public static final int FIELD = 64;
+
+    /**
+     * The property type is a primitive, its box, String, Class or an enum, whose values are
+     * written as a single number, string or literal.
+     */
+    public static final int SCALAR = 128;
+
+    private static final ClassValue<GeneratedAccessor> ACCESSORS = new ClassValue<GeneratedAccessor>() {
+        protected GeneratedAccessor computeValue( Class<?> type ) {
+            return load( type );
+        }
+    };
+
+    private final String[] names;
+    private final int[] flags;
+
+    /**
+     * @param names the properties followed by the fields of the class.
+     * @param flags the type and flags of each of them.
+     */
+    protected GeneratedAccessor( String[] names, int[] flags ) {
+        if( names.length != flags.length ) {
+            throw new IllegalArgumentException( "Expected a flag for each of the " + names.length + " properties but got " + flags.length );
+        }
+        this.names = names;
+        this.flags = flags;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName( int property ) {
+        return names[ property ];
+    }
+
+    public boolean isField( int property ) {
+        return ( flags[ property ] & FIELD ) != 0;
+    }
+
+    public boolean isContainer( int property ) {
+        return ( flags[ property ] & CONTAINER ) != 0;
+    }
+
+    /**
+     * @return true if the property is of a scalar type.  Accessors generated before the SCALAR
+     * flag existed only have it for int, long, float and double properties.
+     */
+    public boolean isScalar( int property ) {
+        return ( flags[ property ] & SCALAR ) != 0 || getType( property ) != OBJECT;
+    }
+
+    /**
+     * @return true if the getter of the property is annotated with {@link flexjson.JSON}.
+     */
+    public boolean isAnnotated( int property ) {
+        return ( flags[ property ] & ( INCLUDE | EXCLUDE ) ) != 0;
+    }
+
+    /**
+     * @return the include value of the {@link flexjson.JSON} annotation of the getter.
+     */
+    public boolean isIncluded( int property ) {
+        return ( flags[ property ] & INCLUDE ) != 0;
+    }
+
+    /**
+     * @return one of OBJECT, INT, LONG, FLOAT or DOUBLE.
+     */
+    protected int getType( int property ) {
+        return flags[ property ] & TYPE_MASK;
+    }
+
+    /**
+     * @return the value of the property boxed the way reflection would box it.
+     */
+    public abstract Object get( Object bean, int property ) throws Exception;
+
+    public int getInt( Object bean, int property ) throws Exception {
+        return ((Number) get( bean, property )).intValue();
+    }
+
+    public long getLong( Object bean, int property ) throws Exception {
+        return ((Number) get( bean, property )).longValue();
+    }
+
+    /**
+     * @return the value of a double property, or of a float property widened to a double.
+     */
+    public double getDouble( Object bean, int property ) throws Exception {
+        return ((Number) get( bean, property )).doubleValue();
+    }
+
+    /**
+     * @return the generated accessor of exactly the given class, or null if it has none.
+     */
+    static GeneratedAccessor find( Class<?> type ) {
+        return ACCESSORS.get( type );
+    }
+
+    static String accessorName( Class<?> type ) {
+        String name = type.getName();
+        int dot = name.lastIndexOf( '.' );
+        return name.substring( 0, dot + 1 ) + name.substring( dot + 1 ).replace( '$', '_' ) + SUFFIX;
+    }
+
+    private static GeneratedAccessor load( Class<?> type ) {
+        if( type.isArray() || type.isPrimitive() || type.getClassLoader() == null ) {
+            return null;
+        }
+        try {
+            Class<?> accessor = Class.forName( accessorName( type ), true, type.getClassLoader() );
+            if( !GeneratedAccessor.class.isAssignableFrom( accessor ) ) {
+                return null;
+            }
+            return (GeneratedAccessor) accessor.getDeclaredConstructor().newInstance();
+        } catch( ClassNotFoundException e ) {
+            return null;
+        } catch( LinkageError e ) {
+            return null;
+        } catch( InstantiationException e ) {
+            throw new JSONException( "Error creating the generated accessor of " + type.getName(), e );
+        } catch( IllegalAccessException e ) {
+            throw new JSONException( "Error creating the generated accessor of " + type.getName(), e );
+        } catch( NoSuchMethodException e ) {
+            throw new JSONException( "Error creating the generated accessor of " + type.getName(), e );
+        } catch( InvocationTargetException e ) {
+            throw new JSONException( "Error creating the generated accessor of " + type.getName(), e.getCause() );
+        }
+    }
+}
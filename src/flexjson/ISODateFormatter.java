@@ -0,0 +1,153 @@
+package flexjson;
+
+import java.util.Arrays;
+
+/**
+ * Internal class used by {@link flexjson.JSONSerializer} to write dates and times in ISO-8601
+ * format as characters into a reusable array.  Calendar fields are worked out with integer
+ * arithmetic rather than a Calendar or formatter, and the fraction of a second is written in
+ * groups of three digits, left out when it's zero, the way {@link java.time.Instant#toString()}
+ * does it.  Instants in UTC reuse the date and time up to the second of the last instant
+ * written by any thread, which is what consecutive timestamps mostly share.  The cached
+ * prefix is immutable and swapped as a whole so the class is safe to use from many threads.
+ */
+final class ISODateFormatter {
+
+    /**
+     * The most characters any of the format methods will write.
+     */
+    public static final int MAX_LENGTH = 48;
+
+    private static final long SECONDS_PER_DAY = 86400;
+
+    private static volatile Prefix cached = new Prefix( Long.MIN_VALUE, new char[0] );
+
+    private ISODateFormatter() {
+    }
+
+    /**
+     * Writes an instant given as epoch seconds and nanoseconds as a UTC date time ending in 'Z'.
+     *
+     * @return the position in buffer after the last character written.
+     */
+    public static int formatInstant( long epochSecond, int nanos, char[] buffer, int position ) {
+        Prefix prefix = cached;
+        if( prefix.epochSecond == epochSecond ) {
+            System.arraycopy( prefix.chars, 0, buffer, position, prefix.chars.length );
+            position += prefix.chars.length;
+        } else {
+            int start = position;
+            long epochDay = Math.floorDiv( epochSecond, SECONDS_PER_DAY );
+            int secondOfDay = (int) Math.floorMod( epochSecond, SECONDS_PER_DAY );
+            position = formatEpochDay( epochDay, buffer, position );
+            buffer[ position++ ] = 'T';
+            position = formatTime( secondOfDay / 3600, secondOfDay / 60 % 60, secondOfDay % 60, 0, buffer, position );
+            cached = new Prefix( epochSecond, Arrays.copyOfRange( buffer, start, position ) );
+        }
+        position = formatFraction( nanos, buffer, position );
+        buffer[ position++ ] = 'Z';
+        return position;
+    }
+
+    public static int formatEpochMillis( long millis, char[] buffer, int position ) {
+        return formatInstant( Math.floorDiv( millis, 1000L ), (int) Math.floorMod( millis, 1000L ) * 1000000, buffer, position );
+    }
+
+    /**
+     * Writes the date of a day counted from 1970-01-01 in the proleptic Gregorian calendar.
+     */
+    public static int formatEpochDay( long epochDay, char[] buffer, int position ) {
+        // civil from days, shifted so years start on the 1st of March
+        long z = epochDay + 719468;
+        long era = ( z >= 0 ? z : z - 146096 ) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = ( dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096 ) / 365;
+        long dayOfYear = dayOfEra - ( 365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100 );
+        int shiftedMonth = (int) ( ( 5 * dayOfYear + 2 ) / 153 );
+        int day = (int) ( dayOfYear - ( 153 * shiftedMonth + 2 ) / 5 + 1 );
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + ( month <= 2 ? 1 : 0 );
+        return formatDate( year, month, day, buffer, position );
+    }
+
+    /**
+     * Years beyond 9999 get a plus sign and years before 0 a minus sign, as ISO-8601 requires.
+     */
+    public static int formatDate( long year, int month, int day, char[] buffer, int position ) {
+        if( year > 9999 ) {
+            buffer[ position++ ] = '+';
+        } else if( year < 0 ) {
+            buffer[ position++ ] = '-';
+            year = -year;
+        }
+        int width = 4;
+        for( long limit = 10000; year >= limit; limit *= 10 ) {
+            width++;
+        }
+        position = pad( year, width, buffer, position );
+        buffer[ position++ ] = '-';
+        position = pad( month, 2, buffer, position );
+        buffer[ position++ ] = '-';
+        return pad( day, 2, buffer, position );
+    }
+
+    public static int formatTime( int hour, int minute, int second, int nanos, char[] buffer, int position ) {
+        position = pad( hour, 2, buffer, position );
+        buffer[ position++ ] = ':';
+        position = pad( minute, 2, buffer, position );
+        buffer[ position++ ] = ':';
+        position = pad( second, 2, buffer, position );
+        return formatFraction( nanos, buffer, position );
+    }
+
+    /**
+     * Writes a UTC offset as 'Z' or +hh:mm, with :ss added when the offset has seconds.
+     */
+    public static int formatOffset( int totalSeconds, char[] buffer, int position ) {
+        if( totalSeconds == 0 ) {
+            buffer[ position++ ] = 'Z';
+            return position;
+        }
+        buffer[ position++ ] = totalSeconds < 0 ? '-' : '+';
+        int seconds = Math.abs( totalSeconds );
+        position = pad( seconds / 3600, 2, buffer, position );
+        buffer[ position++ ] = ':';
+        position = pad( seconds / 60 % 60, 2, buffer, position );
+        if( seconds % 60 != 0 ) {
+            buffer[ position++ ] = ':';
+            position = pad( seconds % 60, 2, buffer, position );
+        }
+        return position;
+    }
+
+    private static int formatFraction( int nanos, char[] buffer, int position ) {
+        if( nanos == 0 ) {
+            return position;
+        }
+        buffer[ position++ ] = '.';
+        if( nanos % 1000000 == 0 ) {
+            return pad( nanos / 1000000, 3, buffer, position );
+        } else if( nanos % 1000 == 0 ) {
+            return pad( nanos / 1000, 6, buffer, position );
+        }
+        return pad( nanos, 9, buffer, position );
+    }
+
+    private static int pad( long value, int width, char[] buffer, int position ) {
+        for( int i = position + width - 1; i >= position; i-- ) {
+            buffer[i] = (char) ( '0' + value % 10 );
+            value /= 10;
+        }
+        return position + width;
+    }
+
+    private static final class Prefix {
+        private final long epochSecond;
+        private final char[] chars;
+
+        Prefix( long epochSecond, char[] chars ) {
+            this.epochSecond = epochSecond;
+            this.chars = chars;
+        }
+    }
+}
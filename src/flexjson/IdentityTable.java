@@ -0,0 +1,142 @@
+package flexjson;
+
+/**
+ * Internal class used by {@link flexjson.JSONSerializer} to remember objects by identity while
+ * walking an object graph.  Objects are compared with == and hashed with
+ * {@link System#identityHashCode(Object)} so user equals() and hashCode() implementations are
+ * never called.  Entries live in one open addressed array with linear probing, and removing an
+ * entry shifts the entries after it back into place so the table never fills with tombstones
+ * while it's used as a stack of the objects currently being visited.  Every entry carries a
+ * positive int value, 0 is returned for objects that aren't in the table.
+ */
+final class IdentityTable {
+
+    private Object[] keys;
+    private int[] values;
+    private int size = 0;
+
+    IdentityTable() {
+        this( 16 );
+    }
+
+    /**
+     * @param capacity the number of slots, rounded up to a power of two.
+     */
+    IdentityTable( int capacity ) {
+        int slots = Integer.highestOneBit( Math.max( capacity, 2 ) - 1 ) << 1;
+        keys = new Object[ slots ];
+        values = new int[ slots ];
+    }
+
+    /**
+     * @return the value stored for the given object, or 0 when it isn't in the table.
+     */
+    public int get( Object key ) {
+        if( key == null ) {
+            return 0;
+        }
+        int mask = keys.length - 1;
+        for( int i = hash( key ) & mask; ; i = ( i + 1 ) & mask ) {
+            Object current = keys[i];
+            if( current == key ) {
+                return values[i];
+            } else if( current == null ) {
+                return 0;
+            }
+        }
+    }
+
+    public boolean contains( Object key ) {
+        return get( key ) != 0;
+    }
+
+    /**
+     * Stores a value for the given object replacing any value it already had.
+     *
+     * @param value the value to store, it must be greater than 0.
+     */
+    public void put( Object key, int value ) {
+        if( value <= 0 ) {
+            throw new IllegalArgumentException( "Value must be positive: " + value );
+        }
+        if( ( size + 1 ) * 2 > keys.length ) {
+            resize( keys.length * 2 );
+        }
+        int mask = keys.length - 1;
+        int i = hash( key ) & mask;
+        while( keys[i] != null ) {
+            if( keys[i] == key ) {
+                values[i] = value;
+                return;
+            }
+            i = ( i + 1 ) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    public void remove( Object key ) {
+        int mask = keys.length - 1;
+        int i = hash( key ) & mask;
+        while( keys[i] != key ) {
+            if( keys[i] == null ) {
+                return;
+            }
+            i = ( i + 1 ) & mask;
+        }
+        keys[i] = null;
+        values[i] = 0;
+        size--;
+
+        // move back every following entry whose probe sequence passes through the freed slot
+        for( int j = ( i + 1 ) & mask; keys[j] != null; j = ( j + 1 ) & mask ) {
+            int home = hash( keys[j] ) & mask;
+            if( ( ( j - home ) & mask ) >= ( ( j - i ) & mask ) ) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                keys[j] = null;
+                values[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    /**
+     * @return a table holding the same entries as this one.
+     */
+    public IdentityTable copy() {
+        IdentityTable copy = new IdentityTable( keys.length );
+        System.arraycopy( keys, 0, copy.keys, 0, keys.length );
+        System.arraycopy( values, 0, copy.values, 0, values.length );
+        copy.size = size;
+        return copy;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void resize( int capacity ) {
+        Object[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new Object[ capacity ];
+        values = new int[ capacity ];
+        int mask = capacity - 1;
+        for( int i = 0; i < oldKeys.length; i++ ) {
+            if( oldKeys[i] != null ) {
+                int j = hash( oldKeys[i] ) & mask;
+                while( keys[j] != null ) {
+                    j = ( j + 1 ) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash( Object key ) {
+        int h = System.identityHashCode( key );
+        return h ^ ( h >>> 16 );
+    }
+}
@@ -15,14 +15,29 @@
  */
 package flexjson;
 
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.Date;
 import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
 import java.lang.reflect.*;
 import java.text.CharacterIterator;
 import java.text.StringCharacterIterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.BaseStream;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.time.ZonedDateTime;
 
 /**
  * <p>
@@ -192,6 +207,22 @@ public class JSONSerializer {
     List<PathExpression> pathExpressions = new ArrayList<PathExpression>();
     Map<Path, Transformer> transformations = new HashMap<Path,Transformer>();
 
+    private volatile CompiledConfiguration compiled;
+    private boolean references = false;
+    private boolean htmlSafe = false;
+    private int parallelThreshold = 0;
+    private ForkJoinPool pool;
+    private int flushElements = 0;
+    private int flushLength = 0;
+    private boolean isoDates = false;
+    private boolean columnar = false;
+    private boolean base64 = false;
+    private Set<Path> base64Paths = new HashSet<Path>();
+    private List<ProxyResolver> proxyResolvers = new ArrayList<ProxyResolver>();
+    private UninitializedPolicy uninitializedPolicy = UninitializedPolicy.LOAD;
+    private SerializationListener listener;
+    private boolean timeGetters = false;
+
     /**
      * Create a serializer instance.  It's unconfigured in terms of fields
      * it should include or exclude.
@@ -199,6 +230,28 @@ public class JSONSerializer {
     public JSONSerializer() {
     }
 
+    /**
+     * Copies the configuration of another serializer.
+     */
+    private JSONSerializer( JSONSerializer other ) {
+        this.pathExpressions = new ArrayList<PathExpression>( other.pathExpressions );
+        this.transformations = new HashMap<Path,Transformer>( other.transformations );
+        this.references = other.references;
+        this.htmlSafe = other.htmlSafe;
+        this.parallelThreshold = other.parallelThreshold;
+        this.pool = other.pool;
+        this.flushElements = other.flushElements;
+        this.flushLength = other.flushLength;
+        this.isoDates = other.isoDates;
+        this.columnar = other.columnar;
+        this.base64 = other.base64;
+        this.base64Paths = new HashSet<Path>( other.base64Paths );
+        this.proxyResolvers = new ArrayList<ProxyResolver>( other.proxyResolvers );
+        this.uninitializedPolicy = other.uninitializedPolicy;
+        this.listener = other.listener;
+        this.timeGetters = other.timeGetters;
+    }
+
     /**
      * This performs a shallow serialization of target instance.  It wraps
      * the resulting JSON in a javascript object that contains a single field
@@ -210,7 +263,7 @@ public class JSONSerializer {
      * @return the JSON object with one field named rootName and the value being the JSON of target.
      */
     public String serialize( String rootName, Object target ) {
-        return new ShallowVisitor().visit( rootName, target );
+        return new ShallowVisitor( null ).toJSON( rootName, target );
     }
 
     /**
@@ -220,7 +273,130 @@ public class JSONSerializer {
      * @return the JSON representing the target instance.
      */
     public String serialize( Object target ) {
-        return new ShallowVisitor().visit( target );
+        return new ShallowVisitor( null ).toJSON( target );
+    }
+
+    /**
+     * This performs a shallow serialization of the target instance, counting what
+     * happened along the way in the given stats.
+     *
+     * @param target the instance to serialize to JSON
+     * @param stats the counters to add to.
+     * @return the JSON representing the target instance.
+     */
+    public String serialize( Object target, SerializationStats stats ) {
+        return new ShallowVisitor( null ).count( stats ).toJSON( target );
+    }
+
+    /**
+     * This performs a shallow serialization of the target instance writing the JSON
+     * straight into the given writer as it's produced instead of building a String
+     * first.  Only a small fixed size buffer is held in memory so the writer starts
+     * receiving output long before large object graphs have been walked completely.
+     * The writer is neither flushed nor closed.
+     *
+     * @param target the instance to serialize to JSON.
+     * @param out the writer receiving the JSON.
+     */
+    public void serialize( Object target, Writer out ) {
+        new ShallowVisitor( jsonWriter( new WriterOutputHandler( out ) ) ).visit( target );
+    }
+
+    /**
+     * See {@link flexjson.JSONSerializer#serialize(Object, java.io.Writer)}.
+     *
+     * @param target the instance to serialize to JSON.
+     * @param out the writer receiving the JSON.
+     * @param stats the counters to add to.
+     */
+    public void serialize( Object target, Writer out, SerializationStats stats ) {
+        new ShallowVisitor( jsonWriter( new WriterOutputHandler( out ) ) ).count( stats ).visit( target );
+    }
+
+    /**
+     * This performs a shallow serialization of the target instance writing the JSON
+     * encoded as UTF-8 straight into the given stream.  Characters are encoded directly
+     * into pooled byte chunks without going through a Writer.  See
+     * {@link flexjson.JSONSerializer#serialize(Object, java.io.Writer)}.
+     *
+     * @param target the instance to serialize to JSON.
+     * @param out the stream receiving the JSON.
+     */
+    public void serialize( Object target, OutputStream out ) {
+        new ShallowVisitor( jsonWriter( new StreamOutputHandler( out ) ) ).visit( target );
+    }
+
+    /**
+     * See {@link flexjson.JSONSerializer#serialize(Object, java.io.OutputStream)}.
+     *
+     * @param target the instance to serialize to JSON.
+     * @param out the stream receiving the JSON.
+     * @param stats the counters to add to.
+     */
+    public void serialize( Object target, OutputStream out, SerializationStats stats ) {
+        new ShallowVisitor( jsonWriter( new StreamOutputHandler( out ) ) ).count( stats ).visit( target );
+    }
+
+    /**
+     * See {@link flexjson.JSONSerializer#serialize(Object, java.io.OutputStream)}.  The bytes
+     * written are hashed on their way to the stream.
+     *
+     * @param target the instance to serialize to JSON.
+     * @param out the stream receiving the JSON.
+     * @param stats the counters to add to, may be null.
+     * @param hash the hash to add the output to.
+     */
+    public void serialize( Object target, OutputStream out, SerializationStats stats, ContentHash hash ) {
+        new ShallowVisitor( jsonWriter( new StreamOutputHandler( out, hash ) ) ).count( stats ).visit( target );
+    }
+
+    /**
+     * This performs a shallow serialization of the target instance writing the JSON into the
+     * given output handler, which decides where the characters go and how they're encoded.
+     * The handler is flushed once the target has been written.
+     *
+     * @param target the instance to serialize to JSON.
+     * @param out the handler receiving the JSON.
+     */
+    public void serialize( Object target, OutputHandler out ) {
+        new ShallowVisitor( jsonWriter( out ) ).visit( target );
+    }
+
+    /**
+     * See {@link flexjson.JSONSerializer#serialize(Object, OutputHandler)}.
+     *
+     * @param target the instance to serialize to JSON.
+     * @param out the handler receiving the JSON.
+     * @param stats the counters to add to.
+     */
+    public void serialize( Object target, OutputHandler out, SerializationStats stats ) {
+        new ShallowVisitor( jsonWriter( out ) ).count( stats ).visit( target );
+    }
+
+    /**
+     * This performs a shallow serialization of the target instance into the given token writer,
+     * which decides the format of the output.  Writers like {@link flexjson.CBORTokenWriter}
+     * write the same document in a format other than JSON text.  The htmlSafe option of this
+     * serializer and pretty printing only apply to JSON text this serializer writes itself, a
+     * {@link flexjson.JSONTokenWriter} passed in here writes as it was set up.  The writer is
+     * flushed once the target has been written.
+     *
+     * @param target the instance to serialize.
+     * @param out the writer receiving the output.
+     */
+    public void serialize( Object target, TokenWriter out ) {
+        new ShallowVisitor( out ).visit( target );
+    }
+
+    /**
+     * See {@link flexjson.JSONSerializer#serialize(Object, TokenWriter)}.
+     *
+     * @param target the instance to serialize.
+     * @param out the writer receiving the output.
+     * @param stats the counters to add to.
+     */
+    public void serialize( Object target, TokenWriter out, SerializationStats stats ) {
+        new ShallowVisitor( out ).count( stats ).visit( target );
     }
 
     /**
@@ -230,13 +406,132 @@ public class JSONSerializer {
      * are honored.  However, cycles in the target's graph are NOT followed.  This
      * means some members won't be included in the JSON if they would create a cycle.
      * Rather than throwing an exception the cycle creating members are simply not
-     * followed.
+     * followed, unless {@link flexjson.JSONSerializer#useReferences(boolean)} is on.
      *
      * @param target the instance to serialize to JSON.
      * @return the JSON representing the target instance deep serialization.
      */
     public String deepSerialize( Object target ) {
-        return new DeepVisitor().visit( target );
+        return new DeepVisitor( null ).toJSON( target );
+    }
+
+    /**
+     * This performs a deep serialization of the target instance, counting what
+     * happened along the way in the given stats.  See
+     * {@link flexjson.JSONSerializer#deepSerialize(Object)}.
+     *
+     * @param target the instance to serialize to JSON.
+     * @param stats the counters to add to.
+     * @return the JSON representing the target instance deep serialization.
+     */
+    public String deepSerialize( Object target, SerializationStats stats ) {
+        return new DeepVisitor( null ).count( stats ).toJSON( target );
+    }
+
+    /**
+     * This performs a deep serialization of the target instance writing the JSON
+     * straight into the given writer as it's produced.  See
+     * {@link flexjson.JSONSerializer#deepSerialize(Object)} and
+     * {@link flexjson.JSONSerializer#serialize(Object, java.io.Writer)}.
+     *
+     * @param target the instance to serialize to JSON.
+     * @param out the writer receiving the JSON.
+     */
+    public void deepSerialize( Object target, Writer out ) {
+        new DeepVisitor( jsonWriter( new WriterOutputHandler( out ) ) ).visit( target );
+    }
+
+    /**
+     * See {@link flexjson.JSONSerializer#deepSerialize(Object, java.io.Writer)}.
+     *
+     * @param target the instance to serialize to JSON.
+     * @param out the writer receiving the JSON.
+     * @param stats the counters to add to.
+     */
+    public void deepSerialize( Object target, Writer out, SerializationStats stats ) {
+        new DeepVisitor( jsonWriter( new WriterOutputHandler( out ) ) ).count( stats ).visit( target );
+    }
+
+    /**
+     * This performs a deep serialization of the target instance writing the JSON
+     * encoded as UTF-8 straight into the given stream.  See
+     * {@link flexjson.JSONSerializer#serialize(Object, java.io.OutputStream)}.
+     *
+     * @param target the instance to serialize to JSON.
+     * @param out the stream receiving the JSON.
+     */
+    public void deepSerialize( Object target, OutputStream out ) {
+        new DeepVisitor( jsonWriter( new StreamOutputHandler( out ) ) ).visit( target );
+    }
+
+    /**
+     * See {@link flexjson.JSONSerializer#deepSerialize(Object, java.io.OutputStream)}.
+     *
+     * @param target the instance to serialize to JSON.
+     * @param out the stream receiving the JSON.
+     * @param stats the counters to add to.
+     */
+    public void deepSerialize( Object target, OutputStream out, SerializationStats stats ) {
+        new DeepVisitor( jsonWriter( new StreamOutputHandler( out ) ) ).count( stats ).visit( target );
+    }
+
+    /**
+     * See {@link flexjson.JSONSerializer#deepSerialize(Object, java.io.OutputStream)}.  The
+     * bytes written are hashed on their way to the stream.
+     *
+     * @param target the instance to serialize to JSON.
+     * @param out the stream receiving the JSON.
+     * @param stats the counters to add to, may be null.
+     * @param hash the hash to add the output to.
+     */
+    public void deepSerialize( Object target, OutputStream out, SerializationStats stats, ContentHash hash ) {
+        new DeepVisitor( jsonWriter( new StreamOutputHandler( out, hash ) ) ).count( stats ).visit( target );
+    }
+
+    /**
+     * This performs a deep serialization of the target instance writing the JSON into the
+     * given output handler.  See {@link flexjson.JSONSerializer#deepSerialize(Object)} and
+     * {@link flexjson.JSONSerializer#serialize(Object, OutputHandler)}.
+     *
+     * @param target the instance to serialize to JSON.
+     * @param out the handler receiving the JSON.
+     */
+    public void deepSerialize( Object target, OutputHandler out ) {
+        new DeepVisitor( jsonWriter( out ) ).visit( target );
+    }
+
+    /**
+     * See {@link flexjson.JSONSerializer#deepSerialize(Object, OutputHandler)}.
+     *
+     * @param target the instance to serialize to JSON.
+     * @param out the handler receiving the JSON.
+     * @param stats the counters to add to.
+     */
+    public void deepSerialize( Object target, OutputHandler out, SerializationStats stats ) {
+        new DeepVisitor( jsonWriter( out ) ).count( stats ).visit( target );
+    }
+
+    /**
+     * This performs a deep serialization of the target instance into the given token writer.
+     * See {@link flexjson.JSONSerializer#deepSerialize(Object)} and
+     * {@link flexjson.JSONSerializer#serialize(Object, TokenWriter)}.
+     *
+     * @param target the instance to serialize.
+     * @param out the writer receiving the output.
+     */
+    public void deepSerialize( Object target, TokenWriter out ) {
+        new DeepVisitor( out ).visit( target );
+    }
+
+    /**
+     * See {@link flexjson.JSONSerializer#deepSerialize(Object, TokenWriter)}.
+     *
+     * @param target the instance to serialize.
+     * @param out the writer receiving the output.
+     * @param stats the counters to add to.
+     */
+    public void deepSerialize( Object target, TokenWriter out, SerializationStats stats ) {
+        new DeepVisitor( out ).count( stats ).visit( target );
     }
 
     /**
@@ -252,7 +547,7 @@ public class JSONSerializer {
      * @return the JSON object with one field named rootName and the value being the JSON of target.
      */
     public String deepSerialize( String rootName, Object target ) {
-        return new DeepVisitor().visit( rootName, target );
+        return new DeepVisitor( null ).toJSON( rootName, target );
     }
 
     /**
@@ -300,6 +595,7 @@ public class JSONSerializer {
         for( String field : fields ) {
             pathExpressions.add( new PathExpression( field, true ) );
         }
+        configurationChanged();
         return this;
     }
 
@@ -316,14 +612,243 @@ public class JSONSerializer {
     public JSONSerializer transform( Transformer transformer, String... fields ) {
         for( String field : fields ) {
             if( field.length() == 0 ) {
-                transformations.put( new Path(), transformer );
+                transformations.put( new Path().freeze(), transformer );
+            } else {
+                transformations.put( new Path( field.split("\\.") ).freeze(), transformer );
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Turns reference mode on or off.  It's off by default, in which case an object that
+     * refers back to one of the objects containing it is left out of the JSON, and an
+     * object reachable through several paths is written out in full at each of them.
+     * In reference mode every object serialized as a bean gets an extra "$id" attribute
+     * holding a number unique within the JSON, and any later occurrence of the same
+     * instance, whether it closes a cycle or is simply shared, is written as
+     * {"$ref":"n"} pointing back at it.  Objects are matched by identity, not equals().
+     * This keeps graphs with a lot of shared objects small and lets the receiving end
+     * rebuild the links between them.
+     *
+     * @param references true to write $id and $ref attributes.
+     * @return this instance for method chaining.
+     */
+    public JSONSerializer useReferences( boolean references ) {
+        this.references = references;
+        return this;
+    }
+
+    /**
+     * Turns HTML safe output on or off.  It's off by default.  When it's on the characters
+     * &lt;, &gt; and &amp; as well as the line and paragraph separators U+2028 and U+2029
+     * are written as unicode escapes in strings and map keys, so the JSON can be dropped
+     * into a &lt;script&gt; block of an HTML page without "&lt;/script&gt;" ending it early
+     * or a separator breaking the line.  The JSON means exactly the same thing either way.
+     *
+     * @param htmlSafe true to escape characters that are special to HTML.
+     * @return this instance for method chaining.
+     */
+    public JSONSerializer htmlSafe( boolean htmlSafe ) {
+        this.htmlSafe = htmlSafe;
+        return this;
+    }
+
+    /**
+     * Turns on parallel serialization of large arrays and lists using the common fork join
+     * pool.  See {@link flexjson.JSONSerializer#parallel(int, java.util.concurrent.ForkJoinPool)}.
+     *
+     * @param threshold the smallest number of elements worth splitting up, or 0 to turn it off.
+     * @return this instance for method chaining.
+     */
+    public JSONSerializer parallel( int threshold ) {
+        return parallel( threshold, ForkJoinPool.commonPool() );
+    }
+
+    /**
+     * Turns on parallel serialization of large arrays and lists.  It's off by default.  An array,
+     * or a List supporting {@link java.util.RandomAccess}, with at least threshold elements is
+     * split into chunks which are serialized on the given pool, each by its own visitor into its
+     * own buffer, while the calling thread serializes the first chunk straight into the output.
+     * The chunks are then written out in order so the JSON is exactly the same as serializing
+     * sequentially.  Only the outermost large collection is split, chunks don't split the
+     * collections they contain again.  Pretty printing, reference mode and transformers always
+     * serialize sequentially.  The elements and their getters are read from several threads
+     * at once, so they must be safe to read concurrently.
+     *
+     * @param threshold the smallest number of elements worth splitting up, or 0 to turn it off.
+     * @param pool the pool the chunks are serialized on.
+     * @return this instance for method chaining.
+     */
+    public JSONSerializer parallel( int threshold, ForkJoinPool pool ) {
+        this.parallelThreshold = threshold;
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Sets how often the output is flushed while serializing a lazy source: a
+     * {@link java.util.stream.Stream}, {@link java.util.Spliterator}, {@link java.util.Iterator}
+     * or {@link flexjson.Cursor}.  Those are serialized as arrays pulling one element at a time,
+     * so together with the Writer or OutputStream serialize methods the memory used stays the
+     * same however many elements there are.  Flushing pushes the elements written so far all
+     * the way through to the destination so the receiving end gets them as they're produced.
+     * Nothing is flushed by default.
+     *
+     * @param elements flush after this many elements, or 0 to not count elements.
+     * @param length flush once this much output, in chars or bytes depending on the destination,
+     * has been written since the last flush, or 0 to not count output.
+     * @return this instance for method chaining.
+     */
+    public JSONSerializer flushEvery( int elements, int length ) {
+        this.flushElements = elements;
+        this.flushLength = length;
+        return this;
+    }
+
+    /**
+     * Turns ISO-8601 date output on or off.  It's off by default, in which case a Date is
+     * written as its number of milliseconds since the epoch and java.time values are serialized
+     * like any other object.  When it's on, Date and {@link java.time.Instant} are written as
+     * UTC date times like "2009-03-21T17:45:02.120Z", {@link java.time.OffsetDateTime} and
+     * {@link java.time.ZonedDateTime} with their offset, and {@link java.time.LocalDate},
+     * {@link java.time.LocalDateTime}, {@link java.time.LocalTime} and
+     * {@link java.time.OffsetTime} as their ISO-8601 form.  A transformer registered for the
+     * path of a date still takes precedence.
+     *
+     * @param isoDates true to write dates as ISO-8601 strings.
+     * @return this instance for method chaining.
+     */
+    public JSONSerializer isoDates( boolean isoDates ) {
+        this.isoDates = isoDates;
+        return this;
+    }
+
+    /**
+     * Turns columnar output on or off.  It's off by default.  When it's on, a collection or
+     * array whose elements are all beans of the same class, nulls aside, is written as a table
+     * naming the columns once and giving each bean as a row of values in the same order:
+     *
+     * <pre>
+     *    { "columns": ["age", "firstname"],
+     *      "rows": [ [23, "Charlie"], [41, "Rose"] ] }
+     *
+     * </pre>
+     *
+     * <p>
+     * The columns are the properties the class would have written at that path, so includes,
+     * excludes and transformers apply as usual.  A property that would have been left out of
+     * a row, because it's null or would close a cycle, is null in it.  A null element is a
+     * null row and an element closing a cycle is left out, as in an array.  Anything else,
+     * like beans of different classes, unloaded proxies or reference mode, is written as a
+     * normal array.  Tables are always serialized sequentially.
+     * </p>
+     *
+     * @param columnar true to write lists of alike beans as tables.
+     * @return this instance for method chaining.
+     */
+    public JSONSerializer columnar( boolean columnar ) {
+        this.columnar = columnar;
+        return this;
+    }
+
+    /**
+     * Turns Base64 output of binary data on or off everywhere.  It's off by default, in which
+     * case a byte[] is written as an array of numbers and a {@link java.nio.ByteBuffer} like
+     * any other object.  When it's on, both are written as a string holding their bytes in
+     * standard Base64 with padding, a ByteBuffer from its position up to its limit without
+     * moving either.  The string is encoded straight into the output a chunk at a time, so
+     * large blobs are never copied into a String first.  A transformer registered for the
+     * path of the data still takes precedence.  This only concerns JSON text: writers of
+     * formats with binary data of their own, like {@link flexjson.CBORTokenWriter}, always
+     * get the bytes as binary data.
+     *
+     * @param base64 true to write binary data as Base64 strings.
+     * @return this instance for method chaining.
+     */
+    public JSONSerializer base64( boolean base64 ) {
+        this.base64 = base64;
+        return this;
+    }
+
+    /**
+     * Writes the byte[] and {@link java.nio.ByteBuffer} values of the given fields as Base64
+     * strings, as {@link #base64(boolean)} does for all of them.  Fields are in dot notation
+     * just like {@link JSONSerializer#transform}, and don't support wildcards either.
+     *
+     * @param fields the paths to the fields holding binary data.
+     * @return this instance for method chaining.
+     */
+    public JSONSerializer base64( String... fields ) {
+        for( String field : fields ) {
+            if( field.length() == 0 ) {
+                base64Paths.add( new Path().freeze() );
             } else {
-                transformations.put( new Path( field.split("\\.") ), transformer );
+                base64Paths.add( new Path( field.split("\\.") ).freeze() );
             }
         }
         return this;
     }
 
+    /**
+     * Adds a resolver for a kind of proxy Flexjson doesn't know about.  Resolvers added here are
+     * asked, in the order they were added, before the built in ones for Hibernate, javassist,
+     * ByteBuddy and CGLIB proxies.  See {@link flexjson.ProxyResolver}.
+     *
+     * @param resolver the resolver to add.
+     * @return this instance for method chaining.
+     */
+    public JSONSerializer proxyResolver( ProxyResolver resolver ) {
+        proxyResolvers.add( resolver );
+        configurationChanged();
+        return this;
+    }
+
+    /**
+     * Sets what happens to proxies and persistent collections that haven't been loaded yet.
+     * With the default of LOAD they're serialized like everything else, which means every
+     * one of them costs a query when an ORM like Hibernate is behind them.  IDENTIFIER and
+     * SKIP leave them unread, see {@link flexjson.UninitializedPolicy}.  Proxies are checked
+     * through the {@link flexjson.ProxyResolver} that recognizes them, and Hibernate's
+     * persistent collections are recognized by name so Hibernate isn't needed at compile time.
+     *
+     * @param policy what to do with unloaded proxies and collections.
+     * @return this instance for method chaining.
+     */
+    public JSONSerializer uninitialized( UninitializedPolicy policy ) {
+        this.uninitializedPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Sets a listener told about every serialization this serializer completes, along with
+     * its {@link flexjson.SerializationStats}.  Serializations that weren't given stats get
+     * their own for the listener.  Without a listener, and without stats, nothing is measured.
+     *
+     * @param listener the listener, or null for none.
+     * @return this instance for method chaining.
+     */
+    public JSONSerializer listener( SerializationListener listener ) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Turns timing of getters on or off for serializations that keep
+     * {@link flexjson.SerializationStats}.  It's off by default, in which case stats only count
+     * what was written and time the serialization as a whole.  When it's on, every property
+     * read also reads the clock twice to add up {@link SerializationStats#getGetterTime()},
+     * which costs noticeably more than the counters, so it's meant for profiling rather than
+     * for stats kept on every request.
+     *
+     * @param timeGetters true to time every getter.
+     * @return this instance for method chaining.
+     */
+    public JSONSerializer timeGetters( boolean timeGetters ) {
+        this.timeGetters = timeGetters;
+        return this;
+    }
+
     /**
      * Return the fields included in serialization.  These fields will be in dot notation.
      *
@@ -366,6 +891,7 @@ public class JSONSerializer {
         for( Object field : fields ) {
             pathExpressions.add( new PathExpression( field.toString(), true ) );
         }
+        configurationChanged();
     }
 
     /**
@@ -392,6 +918,46 @@ public class JSONSerializer {
             }
         }
         pathExpressions.add( new PathExpression( name, false ) );
+        configurationChanged();
+    }
+
+    /**
+     * The path matcher and serialization plans are compiled from the current path
+     * expressions so they have to be rebuilt whenever those expressions change.
+     */
+    private void configurationChanged() {
+        compiled = null;
+    }
+
+    private CompiledConfiguration compiled() {
+        CompiledConfiguration configuration = compiled;
+        if( configuration == null ) {
+            configuration = new CompiledConfiguration( new ArrayList<PathExpression>( pathExpressions ) );
+            compiled = configuration;
+        }
+        return configuration;
+    }
+
+    /**
+     * @return a writer of JSON text into the given handler with the options of this serializer.
+     */
+    private JSONTokenWriter jsonWriter( OutputHandler out ) {
+        return new JSONTokenWriter( out, htmlSafe, false );
+    }
+
+    /**
+     * Freezes the current configuration of this serializer into a {@link flexjson.CompiledSerializer}.
+     * The includes, excludes, transformers and options are copied and compiled right away,
+     * so later changes to this serializer don't affect the compiled one, and the compiled
+     * one can be shared by any number of threads serializing at the same time.  Use this
+     * serializer as the builder, then keep the compiled serializer around and reuse it.
+     *
+     * @return a thread safe serializer with the configuration this serializer has now.
+     */
+    public CompiledSerializer compile() {
+        JSONSerializer copy = new JSONSerializer( this );
+        copy.compiled();
+        return new CompiledSerializer( copy );
     }
 
     /**
@@ -401,7 +967,7 @@ public class JSONSerializer {
      * @return the serialized representation of the target in pretty print form.
      */
     public String prettyPrint( Object target ) {
-        return new ShallowVisitor( true ).visit( target );
+        return new ShallowVisitor( null, true ).toJSON( target );
     }
 
     /**
@@ -412,410 +978,1144 @@ public class JSONSerializer {
      * @return the serialized representation of the target in pretty print form.
      */
     public String prettyPrint( String rootName, Object target ) {
-        return new ShallowVisitor( true ).visit( rootName, target );
+        return new ShallowVisitor( null, true ).toJSON( rootName, target );
     }
 
     private abstract class ObjectVisitor {
-        protected StringBuilder builder;
+        protected TokenWriter out;
+        // the same writer when it writes JSON text, which has shortcuts for precomputed keys
+        private JSONTokenWriter jsonOut;
         protected boolean prettyPrint = false;
-        private int amount = 0;
-        private boolean insideArray = false;
         private Path path;
-
-        protected ObjectVisitor() {
-            builder = new StringBuilder();
+        private CompiledConfiguration configuration;
+        private boolean deep;
+        private Map<Class<?>,SerializationPlan> plans;
+        private PathMatcher matcher;
+        private PathMatcher.State matcherState;
+        private IdentityTable visits = new IdentityTable();
+        private IdentityTable ids;
+        private int nextId = 1;
+        private SerializationStats stats;
+        private boolean timing = false;
+        private int depth = 0;
+        private long startTime;
+        private long startLength;
+        private final char[] digits = new char[ ISODateFormatter.MAX_LENGTH ];
+        private boolean forked = false;
+
+        // attribute keys are held back until their value writes something
+        private boolean pending = false;
+        private boolean pendingAttribute;
+        private Object pendingKey;
+        private SerializationPlan.Property pendingProperty;
+
+        protected ObjectVisitor( TokenWriter out, boolean deep ) {
+            output( out );
             path = new Path();
+            configuration = compiled();
+            this.deep = deep;
+            plans = configuration.getPlans( deep );
+            matcher = configuration.getMatcher();
+            matcherState = matcher.getRoot();
+            if( references ) {
+                ids = new IdentityTable( 64 );
+            }
+            if( listener != null ) {
+                stats = new SerializationStats();
+                timing = timeGetters;
+            }
         }
 
-        public ObjectVisitor(boolean prettyPrint) {
-            this();
+        public ObjectVisitor(TokenWriter out, boolean deep, boolean prettyPrint) {
+            this( out, deep );
             this.prettyPrint = prettyPrint;
         }
 
-        public String visit( Object target ) {
+        /**
+         * Makes this visitor count into the given stats.  Null stats turn counting off unless
+         * there's a listener.
+         */
+        public ObjectVisitor count( SerializationStats stats ) {
+            if( stats != null || listener == null ) {
+                this.stats = stats;
+                timing = stats != null && timeGetters;
+            }
+            return this;
+        }
+
+        private void output( TokenWriter out ) {
+            this.out = out;
+            jsonOut = out instanceof JSONTokenWriter ? (JSONTokenWriter) out : null;
+        }
+
+        public void visit( Object target ) {
+            begin();
             json( target );
-            return builder.toString();
+            out.flush();
+            end( target );
         }
 
-        public String visit( String rootName, Object target ) {
+        public void visit( String rootName, Object target ) {
+            begin();
             beginObject();
-            string(rootName);
-            add(':');
+            defer( true, rootName, null );
             json( target );
+            wrote();
             endObject();
-            return builder.toString();
+            out.flush();
+            end( target );
+        }
+
+        /**
+         * Serializes the target into a pooled buffer, sized after earlier output for the same
+         * type of target, and returns the output as a String.
+         */
+        public String toJSON( Object target ) {
+            return toJSON( null, target, false );
+        }
+
+        public String toJSON( String rootName, Object target ) {
+            return toJSON( rootName, target, true );
+        }
+
+        private String toJSON( String rootName, Object target, boolean wrapped ) {
+            CompiledConfiguration.SizeEstimates sizes = configuration.getSizes( deep, prettyPrint );
+            CharBufferOutputHandler buffer = new CharBufferOutputHandler( target != null ? sizes.getExpectedLength( target.getClass() ) : 0 );
+            output( new JSONTokenWriter( buffer, htmlSafe, prettyPrint ) );
+            try {
+                if( wrapped ) {
+                    visit( rootName, target );
+                } else {
+                    visit( target );
+                }
+                if( target != null ) {
+                    sizes.recordLength( target.getClass(), buffer.getLength() );
+                }
+                return buffer.toString();
+            } finally {
+                buffer.release();
+            }
+        }
+
+        private void begin() {
+            if( stats != null ) {
+                startTime = System.nanoTime();
+                startLength = out.getLength();
+            }
+        }
+
+        private void end( Object target ) {
+            if( stats != null ) {
+                stats.completed( out.getLength() - startLength, System.nanoTime() - startTime );
+                if( listener != null ) {
+                    listener.serialized( target, stats );
+                }
+            }
         }
 
         private void json(Object object) {
-            if (object == null) add("null");
+            if (object == null) out().nul();
+            else if (object instanceof RawJson)
+                raw( (RawJson) object );
             else if (object instanceof Class)
                 string( ((Class)object).getName() );
             else if (object instanceof Boolean)
                 bool( ((Boolean) object) );
             else if (object instanceof Number)
-                add( doTransform( object ) );
+                number( (Number) object );
             else if (object instanceof String)
                 string(object);
             else if (object instanceof Character)
                 string(object);
+            else if( uninitializedPolicy != UninitializedPolicy.LOAD && !isInitialized( object ) )
+                uninitialized( object );
             else if (object instanceof Map)
                 map( (Map)object);
+            else if( ( object instanceof byte[] || object instanceof ByteBuffer ) && isBinary() )
+                binary( object );
             else if (object.getClass().isArray())
                 array( object );
             else if (object instanceof Iterable)
-                array(((Iterable) object).iterator() );
+                iterable( (Iterable) object );
             else if( object instanceof Date)
                 date( (Date)object );
             else if( object instanceof Enum )
                 enumerate( (Enum)object );
+            else if( isoDates && isTemporal( object ) )
+                temporal( object );
+            else if( object instanceof BaseStream )
+                lazy( ((BaseStream) object).iterator(), (BaseStream) object );
+            else if( object instanceof Spliterator )
+                lazy( Spliterators.iterator( (Spliterator<?>) object ), null );
+            else if( object instanceof Iterator )
+                lazy( (Iterator<?>) object, object instanceof AutoCloseable ? (AutoCloseable) object : null );
             else
                 bean( object );
         }
 
+        /**
+         * @return true if {@link #json(Object)} would write the object with {@link #bean(Object)}.
+         */
+        private boolean isBean(Object object) {
+            return !( object instanceof RawJson || object instanceof Class || object instanceof Boolean || object instanceof Number
+                    || object instanceof String || object instanceof Character || object instanceof Map
+                    || object.getClass().isArray() || object instanceof Iterable || object instanceof Date
+                    || object instanceof Enum || ( isoDates && isTemporal( object ) ) || object instanceof BaseStream
+                    || object instanceof Spliterator || object instanceof Iterator
+                    || ( object instanceof ByteBuffer && isBinary() ) );
+        }
+
+        private boolean isInitialized(Object object) {
+            if( ProxyResolvers.isUninitializedCollection( object ) ) {
+                return false;
+            }
+            ProxyResolver resolver = findProxyResolver( object.getClass() );
+            return resolver == null || resolver.isInitialized( object );
+        }
+
+        /**
+         * Writes an unloaded proxy or collection without reading it.  Unless its identifier is
+         * written, it's left out when it's the value of an attribute, and written as null
+         * anywhere else so arrays keep their length and the output stays valid.
+         */
+        private void uninitialized(Object object) {
+            if( stats != null ) {
+                stats.avoidedLoad();
+            }
+            if( uninitializedPolicy == UninitializedPolicy.IDENTIFIER ) {
+                ProxyResolver resolver = findProxyResolver( object.getClass() );
+                Object identifier = resolver != null ? resolver.getIdentifier( object ) : null;
+                if( identifier != null ) {
+                    json( identifier );
+                    return;
+                }
+            }
+            if( !pending || !pendingAttribute ) {
+                out().nul();
+            }
+        }
+
         private void enumerate(Enum value) {
             string( value.name() );
         }
 
         private void map(Map map) {
+            if( stats != null ) {
+                stats.map();
+            }
             beginObject();
             Iterator it = map.keySet().iterator();
-            boolean firstField = true;
             while (it.hasNext()) {
                 Object key = it.next();
-                int len = builder.length();
-                add( key, map.get(key), firstField );
-                if( len < builder.length() && map.get(key) != null ) {
-                    firstField = false;
-                }
+                add( key, map.get(key) );
             }
             endObject();
         }
 
         private void array(Iterator it) {
+            if( stats != null ) {
+                stats.collection();
+            }
             beginArray();
             while (it.hasNext()) {
-                if( prettyPrint ) {
-                    addNewline();
-                }
-                addArrayElement( it.next(), it.hasNext() );
+                addArrayElement( it.next() );
             }
             endArray();
         }
 
+        /**
+         * Serializes the elements of a lazy source as an array, flushing the output as configured
+         * by {@link JSONSerializer#flushEvery(int, int)}, and closes the source afterwards.
+         */
+        private void lazy(Iterator<?> it, AutoCloseable resource) {
+            boolean completed = false;
+            try {
+                if( stats != null ) {
+                    stats.collection();
+                }
+                beginArray();
+                int elements = 0;
+                long flushed = out.getLength();
+                while (it.hasNext()) {
+                    addArrayElement( it.next() );
+                    elements++;
+                    if( ( flushElements > 0 && elements >= flushElements ) || ( flushLength > 0 && out.getLength() - flushed >= flushLength ) ) {
+                        out.flushDestination();
+                        elements = 0;
+                        flushed = out.getLength();
+                    }
+                }
+                endArray();
+                completed = true;
+            } finally {
+                if( resource != null ) {
+                    try {
+                        resource.close();
+                    } catch( Exception e ) {
+                        if( completed ) {
+                            throw new JSONException( "Error closing " + resource, e );
+                        }
+                    }
+                }
+            }
+        }
+
+        private void iterable(Iterable iterable) {
+            if( columnar && iterable instanceof Collection && table( (Collection<?>) iterable ) ) {
+                return;
+            }
+            if( iterable instanceof List && iterable instanceof RandomAccess && isParallel( ((List) iterable).size() ) ) {
+                parallel( iterable, ((List) iterable).size() );
+            } else {
+                array( iterable.iterator() );
+            }
+        }
+
         private void array(Object object) {
-            beginArray();
+            boolean primitive = object.getClass().getComponentType().isPrimitive();
+            if( columnar && !primitive && table( Arrays.asList( (Object[]) object ) ) ) {
+                return;
+            }
             int length = Array.getLength(object);
-            for (int i = 0; i < length; ++i) {
-                if( prettyPrint ) {
-                    addNewline();
+            if( isParallel( length ) ) {
+                parallel( object, length );
+                return;
+            }
+            if( stats != null ) {
+                stats.collection();
+            }
+            beginArray();
+            if( primitive && findTransformer() == null ) {
+                primitives( object, 0, length );
+            } else {
+                for (int i = 0; i < length; ++i) {
+                    addArrayElement( Array.get(object, i) );
+                }
+            }
+            endArray();
+        }
+
+        /**
+         * Writes the elements from and up to the given indexes of an array of a primitive type
+         * with a loop of its own for each type, so they're neither boxed nor read through
+         * reflection.  The output is the same as writing each boxed element would give.
+         */
+        private void primitives(Object array, int from, int to) {
+            TokenWriter writer = out();
+            Class<?> type = array.getClass().getComponentType();
+            if( type == int.class ) {
+                int[] values = (int[]) array;
+                for( int i = from; i < to; i++ ) {
+                    writer.number( (long) values[i] );
+                }
+            } else if( type == long.class ) {
+                long[] values = (long[]) array;
+                for( int i = from; i < to; i++ ) {
+                    writer.number( values[i] );
+                }
+            } else if( type == double.class ) {
+                double[] values = (double[]) array;
+                for( int i = from; i < to; i++ ) {
+                    writer.number( values[i] );
+                }
+            } else if( type == float.class ) {
+                float[] values = (float[]) array;
+                for( int i = from; i < to; i++ ) {
+                    writer.number( values[i] );
+                }
+            } else if( type == short.class ) {
+                short[] values = (short[]) array;
+                for( int i = from; i < to; i++ ) {
+                    writer.number( (long) values[i] );
+                }
+            } else if( type == byte.class ) {
+                byte[] values = (byte[]) array;
+                for( int i = from; i < to; i++ ) {
+                    writer.number( (long) values[i] );
+                }
+            } else if( type == char.class ) {
+                char[] values = (char[]) array;
+                for( int i = from; i < to; i++ ) {
+                    writer.string( values, i, i + 1 );
+                }
+            } else {
+                boolean[] values = (boolean[]) array;
+                for( int i = from; i < to; i++ ) {
+                    writer.bool( values[i] );
+                }
+            }
+        }
+
+        /**
+         * @return true if a byte[] or ByteBuffer at the current path is written as binary data,
+         * which JSON text holds as a Base64 string.  See {@link JSONSerializer#base64(boolean)}.
+         * Formats other than JSON text have binary data of their own, so it's always used there.
+         */
+        private boolean isBinary() {
+            return ( jsonOut == null || base64 || ( !base64Paths.isEmpty() && base64Paths.contains( path ) ) ) && findTransformer() == null;
+        }
+
+        private void binary(Object object) {
+            if( object instanceof byte[] ) {
+                byte[] bytes = (byte[]) object;
+                out().bytes( bytes, 0, bytes.length );
+            } else {
+                out().bytes( (ByteBuffer) object );
+            }
+        }
+
+        private boolean isParallel(int length) {
+            return parallelThreshold > 0 && length >= parallelThreshold && !forked && !prettyPrint && ids == null && transformations.isEmpty();
+        }
+
+        /**
+         * Serializes the elements of a list or array in chunks on the fork join pool.  The first
+         * chunk is written straight to the output by this visitor while the others are buffered
+         * by visitors forked from this one, and written out once it's their turn.
+         */
+        private void parallel(final Object elements, final int length) {
+            int chunks = Math.max( pool.getParallelism(), 1 ) * 4;
+            final int size = ( length + chunks - 1 ) / chunks;
+            List<ForkJoinTask<TokenWriter>> tasks = new ArrayList<ForkJoinTask<TokenWriter>>();
+            List<ObjectVisitor> forks = new ArrayList<ObjectVisitor>();
+            boolean completed = false;
+            try {
+                if( stats != null ) {
+                    stats.collection();
+                }
+                beginArray();
+                for( int start = size; start < length; start += size ) {
+                    final int from = start;
+                    final int to = Math.min( length, start + size );
+                    final TokenWriter buffer = out.newBuffer();
+                    final ObjectVisitor chunk = fork( buffer );
+                    forks.add( chunk );
+                    tasks.add( pool.submit( new Callable<TokenWriter>() {
+                        public TokenWriter call() {
+                            chunk.elements( elements, from, to );
+                            return buffer;
+                        }
+                    } ) );
+                }
+                elements( elements, 0, Math.min( size, length ) );
+                for( ForkJoinTask<TokenWriter> task : tasks ) {
+                    out.append( task.join() );
+                }
+                endArray();
+                if( stats != null ) {
+                    for( ObjectVisitor chunk : forks ) {
+                        stats.add( chunk.stats );
+                    }
+                }
+                completed = true;
+            } finally {
+                if( !completed ) {
+                    for( ForkJoinTask<TokenWriter> task : tasks ) {
+                        task.cancel( false );
+                    }
+                }
+            }
+        }
+
+        private void elements(Object elements, int from, int to) {
+            if( !( elements instanceof List ) && elements.getClass().getComponentType().isPrimitive() ) {
+                primitives( elements, from, to );
+                return;
+            }
+            for( int i = from; i < to; i++ ) {
+                addArrayElement( elements instanceof List ? ((List) elements).get( i ) : Array.get( elements, i ) );
+            }
+        }
+
+        /**
+         * @return a new visitor of the same kind writing to the given output, positioned at
+         * the same path and aware of the same beans being visited as this one.
+         */
+        private ObjectVisitor fork(TokenWriter out) {
+            ObjectVisitor child = newVisitor( out );
+            child.path = new Path( path.getPath().toArray( new String[ path.length() ] ) );
+            child.plans = plans;
+            child.matcher = matcher;
+            child.matcherState = matcherState;
+            child.visits = visits.copy();
+            child.forked = true;
+            child.depth = depth;
+            child.stats = stats != null ? new SerializationStats() : null;
+            child.timing = timing;
+            return child;
+        }
+
+        protected abstract ObjectVisitor newVisitor( TokenWriter out );
+
+        /**
+         * Writes the elements as a table of columns and rows when they're all beans of one
+         * class.  See {@link JSONSerializer#columnar(boolean)}.
+         *
+         * @return false, having written nothing, when the elements can't be a table.
+         */
+        private boolean table(Collection<?> elements) {
+            if( ids != null ) {
+                return false;
+            }
+            Object sample = null;
+            for( Object element : elements ) {
+                if( element == null ) {
+                    continue;
+                }
+                if( sample == null ) {
+                    if( !isBean( element ) ) {
+                        return false;
+                    }
+                    sample = element;
+                } else if( element.getClass() != sample.getClass() ) {
+                    return false;
+                }
+                if( uninitializedPolicy != UninitializedPolicy.LOAD && !isInitialized( element ) ) {
+                    return false;
+                }
+            }
+            if( sample == null ) {
+                return false;
+            }
+            try {
+                SerializationPlan plan = planFor( sample );
+                PathMatcher.State parentState = matcherState;
+                List<SerializationPlan.Property> columns = new ArrayList<SerializationPlan.Property>();
+                for( SerializationPlan.Property prop : plan.getProperties() ) {
+                    matcherState = parentState.next( prop.getSymbol() );
+                    if( isIncluded( prop ) ) {
+                        columns.add( prop );
+                    }
+                }
+                columns.addAll( Arrays.asList( plan.getFields() ) );
+                matcherState = parentState;
+
+                if( stats != null ) {
+                    stats.collection();
+                }
+                beginObject();
+                defer( true, "columns", null );
+                beginArray();
+                for( SerializationPlan.Property column : columns ) {
+                    out.string( column.getName() );
+                }
+                endArray();
+                wrote();
+                defer( true, "rows", null );
+                beginArray();
+                for( Object element : elements ) {
+                    defer( false, null, null );
+                    row( element, columns, parentState );
+                    wrote();
+                }
+                endArray();
+                wrote();
+                endObject();
+                return true;
+            } catch( JSONException e ) {
+                throw e;
+            } catch( Exception e ) {
+                throw new JSONException( "Error trying to serialize path: " + path.toString(), e );
+            }
+        }
+
+        /**
+         * Writes a bean as an array of the values of the given columns.
+         */
+        private void row(Object object, List<SerializationPlan.Property> columns, PathMatcher.State parentState) throws Exception {
+            if( object == null ) {
+                out().nul();
+                return;
+            }
+            if( visits.contains( object ) ) {
+                return;
+            }
+            if( stats != null ) {
+                stats.bean();
+            }
+            visits.put( object, 1 );
+            beginArray();
+            for( int i = 0; i < columns.size(); i++ ) {
+                SerializationPlan.Property prop = columns.get( i );
+                path.enqueue( prop.getName() );
+                matcherState = parentState.next( prop.getSymbol() );
+                defer( false, null, null );
+                if( isPrimitive( prop ) ) {
+                    primitive( prop, object );
+                } else {
+                    Object value = get( prop, object );
+                    if( value == null || !visits.contains( value ) ) {
+                        json( value );
+                    }
+                }
+                if( !wrote() ) {
+                    // keeps the values lined up with their columns
+                    out.nul();
                 }
-                addArrayElement( Array.get(object, i), i < length - 1 );
+                path.pop();
             }
+            matcherState = parentState;
             endArray();
+            visits.remove( object );
         }
 
-        private void addArrayElement(Object object, boolean isLast ) {
-            int len = builder.length();
+        private void addArrayElement(Object object) {
+            defer( false, null, null );
             json( object );
-            if( len < builder.length() ) { // make sure we at least added an element.
-                if ( isLast ) add(',');
+            wrote();
+        }
+
+        /**
+         * Writes the number as the writer's native number type.  The text a transformer makes
+         * of it is written as it is, like a {@link RawJson} fragment.
+         */
+        private void number(Number value) {
+            if( findTransformer() != null ) {
+                raw( RawJson.of( String.valueOf( doTransform( value ) ) ) );
+            } else if( value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte ) {
+                out().number( value.longValue() );
+            } else if( value instanceof Double ) {
+                out().number( value.doubleValue() );
+            } else if( value instanceof Float ) {
+                out().number( value.floatValue() );
+            } else {
+                out().number( value );
+            }
+        }
+
+        /**
+         * Hands a fragment of JSON to the writer.  An empty fragment is treated like an unloaded
+         * proxy, see {@link #uninitialized(Object)}.
+         */
+        private void raw(RawJson json) {
+            if( json.isEmpty() && pending && pendingAttribute ) {
+                return;
             }
+            out().raw( json );
         }
 
         private void bool(Boolean b) {
-            add( b ? "true" : "false" );
+            out().bool( b );
         }
 
         private void string(Object obj) {
-            String value = doTransform( obj ).toString();
-            add('\"');
-            int last = 0;
-            int len = value.length();
-            for( int i = 0; i < len; i++ ) {
-                char c = value.charAt(i);
-                if (c == '"') {
-                    last = add(value, last, i, "\\\"");
-                } else if (c == '\\') {
-                    last = add(value, last, i, "\\\\");
-                } else if (c == '\b') {
-                    last = add(value, last, i, "\\b");
-                } else if (c == '\f') {
-                    last = add(value, last, i, "\\f");
-                } else if (c == '\n') {
-                    last = add(value, last, i, "\\n");
-                } else if (c == '\r') {
-                    last = add(value, last, i, "\\r");
-                } else if (c == '\t') {
-                    last = add(value, last, i, "\\t");
-                } else if (Character.isISOControl(c)) {
-                    last = add(value, last, i) + 1;
-                    unicode(c);
-                }
-            }
-            if( last < value.length() ) {
-                add( value, last, value.length() );
-            }
-            add('\"');
-        }
-
-        private int add( String value, int begin, int end ) {
-            builder.append( value, begin, end );
-            return end;
-        }
-
-        private int add( String value, int begin, int end, String append ) {
-            builder.append( value, begin, end );
-            builder.append( append );
-            return end + 1;
+            out().string( doTransform( obj ).toString() );
         }
 
         private void date(Date date) {
-            if( transformations.containsKey( path ) ) {
+            if( findTransformer() != null ) {
                 string( date.getTime() );
+            } else if( isoDates ) {
+                out().string( digits, 0, ISODateFormatter.formatEpochMillis( date.getTime(), digits, 0 ) );
             } else {
-                builder.append( date.getTime() );
+                out().number( date.getTime() );
             }
         }
 
-        private ChainedSet visits = new ChainedSet( Collections.EMPTY_SET );
+        private boolean isTemporal(Object object) {
+            return object instanceof Instant || object instanceof LocalDate || object instanceof LocalDateTime
+                    || object instanceof LocalTime || object instanceof OffsetDateTime || object instanceof ZonedDateTime
+                    || object instanceof OffsetTime;
+        }
+
+        private void temporal(Object object) {
+            if( findTransformer() != null ) {
+                string( object );
+                return;
+            }
+            int length;
+            if( object instanceof Instant ) {
+                Instant instant = (Instant) object;
+                length = ISODateFormatter.formatInstant( instant.getEpochSecond(), instant.getNano(), digits, 0 );
+            } else if( object instanceof LocalDate ) {
+                length = date( (LocalDate) object, 0 );
+            } else if( object instanceof LocalDateTime ) {
+                length = dateTime( (LocalDateTime) object );
+            } else if( object instanceof LocalTime ) {
+                length = time( (LocalTime) object, 0 );
+            } else if( object instanceof OffsetDateTime ) {
+                OffsetDateTime dateTime = (OffsetDateTime) object;
+                length = ISODateFormatter.formatOffset( dateTime.getOffset().getTotalSeconds(), digits, dateTime( dateTime.toLocalDateTime() ) );
+            } else if( object instanceof ZonedDateTime ) {
+                ZonedDateTime dateTime = (ZonedDateTime) object;
+                length = ISODateFormatter.formatOffset( dateTime.getOffset().getTotalSeconds(), digits, dateTime( dateTime.toLocalDateTime() ) );
+            } else {
+                OffsetTime time = (OffsetTime) object;
+                length = ISODateFormatter.formatOffset( time.getOffset().getTotalSeconds(), digits, time( time.toLocalTime(), 0 ) );
+            }
+            out().string( digits, 0, length );
+        }
+
+        private int date(LocalDate date, int position) {
+            return ISODateFormatter.formatDate( date.getYear(), date.getMonthValue(), date.getDayOfMonth(), digits, position );
+        }
+
+        private int time(LocalTime time, int position) {
+            return ISODateFormatter.formatTime( time.getHour(), time.getMinute(), time.getSecond(), time.getNano(), digits, position );
+        }
+
+        private int dateTime(LocalDateTime dateTime) {
+            int position = date( dateTime.toLocalDate(), 0 );
+            digits[ position++ ] = 'T';
+            return time( dateTime.toLocalTime(), position );
+        }
 
-        @SuppressWarnings({"unchecked"})
         protected void bean(Object object) {
-            if( !visits.contains( object ) ) {
-                visits = new ChainedSet( visits );
-                visits.add( object );
+            SerializationPlan plan = null;
+            if( ids != null ) {
+                int id = ids.get( object );
+                if( id != 0 ) {
+                    beginObject();
+                    reference( "$ref", id );
+                    endObject();
+                    return;
+                }
+                id = nextId++;
+                ids.put( object, id );
+                if( stats != null ) {
+                    stats.bean();
+                }
                 beginObject();
-                try {
-                    BeanInfo info = Introspector.getBeanInfo( findBeanClass( object ) );
-                    PropertyDescriptor[] props = info.getPropertyDescriptors();
-                    boolean firstField = true;
-                    for (PropertyDescriptor prop : props) {
-                        String name = prop.getName();
-                        path.enqueue( name );
-                        Method accessor = prop.getReadMethod();
-                        if (accessor != null && isIncluded( prop ) ) {
-                            Object value = accessor.invoke(object, (Object[]) null);
-                            if( !visits.contains( value ) ) {
-                                add(name, value, firstField);
-                                
-                                if(value != null)
-                                	firstField = false;
-                            }
+                reference( "$id", id );
+            } else if( visits.contains( object ) ) {
+                return;
+            } else {
+                plan = plan( object );
+                SerializationPlan.Template template = !transformations.isEmpty() ? null : plan.getTemplate( matcherState );
+                if( template != null ) {
+                    template( template, object );
+                    return;
+                }
+                if( stats != null ) {
+                    stats.bean();
+                }
+                beginObject();
+            }
+            visits.put( object, 1 );
+            try {
+                if( plan == null ) {
+                    plan = planFor( object );
+                }
+                PathMatcher.State parentState = matcherState;
+                for (SerializationPlan.Property prop : plan.getProperties()) {
+                    path.enqueue( prop.getName() );
+                    matcherState = parentState.next( prop.getSymbol() );
+                    if ( isIncluded( prop ) ) {
+                        if( addPrimitive( prop, object ) ) {
+                            path.pop();
+                            continue;
                         }
+                        Object value = get( prop, object );
+                        if( ids != null || !visits.contains( value ) ) {
+                            add( prop, value );
+                        }
+                    }
+                    path.pop();
+                }
+                for (SerializationPlan.Property prop : plan.getFields()) {
+                    path.enqueue( prop.getName() );
+                    matcherState = parentState.next( prop.getSymbol() );
+                    if( addPrimitive( prop, object ) ) {
                         path.pop();
+                        continue;
                     }
-                    for( Class current = object.getClass(); current != null; current = current.getSuperclass() ) {
-                        Field[] ff = current.getDeclaredFields();
-                        for (Field field : ff) {
-                            path.enqueue( field.getName() );
-                            if (isValidField(field)) {
-                                if( !visits.contains( field.get(object) ) ) {
-                                    add(field.getName(), field.get(object), firstField);
-                                    
-                                    if(field.get(object) != null)
-                                    	firstField = false;
-                                }
-                            }
-                            path.pop();
+                    Object value = get( prop, object );
+                    if( ids != null || !visits.contains( value ) ) {
+                        add( prop, value );
+                    }
+                    path.pop();
+                }
+                matcherState = parentState;
+            } catch( JSONException e ) {
+                throw e;
+            } catch( Exception e ) {
+                throw new JSONException( "Error trying to serialize path: " + path.toString(), e );
+            }
+            endObject();
+            visits.remove( object );
+        }
+
+        /**
+         * Writes a bean from a template, without checking which of its properties are included
+         * one after the other.  JSON text that isn't pretty printed copies the text between its
+         * values in one go each instead of deferring each key and separator in turn.  Values are
+         * all scalars, so nothing can refer back to the bean and it needn't be marked as visited.
+         */
+        private void template(SerializationPlan.Template template, Object object) {
+            if( stats != null ) {
+                stats.bean();
+            }
+            enter();
+            JSONTokenWriter text = jsonOut != null && !jsonOut.isPrettyPrint() ? jsonOut : null;
+            TokenWriter writer = out();
+            if( text == null ) {
+                writer.beginObject();
+            }
+            SerializationPlan.Property[] slots = template.getSlots();
+            boolean firstField = true;
+            int i = 0;
+            try {
+                for( ; i < slots.length; i++ ) {
+                    SerializationPlan.Property slot = slots[i];
+                    Object value = null;
+                    if( slot.getAccessor().getType() == PropertyAccessor.Type.OBJECT ) {
+                        value = get( slot, object );
+                        if( ignoreNulls && value == null ) {
+                            continue;
                         }
                     }
-                } catch( JSONException e ) {
-                    throw e;
-                } catch( Exception e ) {
-                    throw new JSONException( "Error trying to serialize path: " + path.toString(), e );
+                    if( text == null ) {
+                        writer.key( slot.getName() );
+                    } else if( firstField ) {
+                        text.opening( template.getOpening( i ) );
+                    } else {
+                        text.separator( template.getSeparator( i ) );
+                    }
+                    if( slot.getAccessor().getType() != PropertyAccessor.Type.OBJECT ) {
+                        primitive( slot, object );
+                    } else {
+                        json( value );
+                    }
+                    firstField = false;
                 }
-                endObject();
-                visits = (ChainedSet) visits.getParent();
+            } catch( JSONException e ) {
+                throw e;
+            } catch( Exception e ) {
+                path.enqueue( slots[i].getName() );
+                throw new JSONException( "Error trying to serialize path: " + path.toString(), e );
+            }
+            if( text == null || !firstField ) {
+                writer.endObject();
+            } else {
+                text.emptyObject();
             }
+            depth--;
         }
 
-        private Object doTransform(Object value) {
-            if( transformations.containsKey( path ) ) {
-                value = transformations.get( path ).transform( value );
+        /**
+         * Writes an int, long, float or double property straight from its typed accessor so
+         * the value is never boxed.
+         *
+         * @return false when the property isn't primitive or has a transformer, in which case
+         * nothing was written and the value has to be read as an object.
+         */
+        private boolean addPrimitive(SerializationPlan.Property prop, Object object) throws Exception {
+            if( !isPrimitive( prop ) ) {
+                return false;
             }
+            defer( true, null, prop );
+            primitive( prop, object );
+            wrote();
+            return true;
+        }
+
+        /**
+         * @return true if the property is an int, long, float or double without a transformer.
+         */
+        private boolean isPrimitive(SerializationPlan.Property prop) {
+            return prop.getAccessor().getType() != PropertyAccessor.Type.OBJECT && findTransformer() == null;
+        }
+
+        private void primitive(SerializationPlan.Property prop, Object object) throws Exception {
+            PropertyAccessor accessor = prop.getAccessor();
+            long start = timing ? System.nanoTime() : 0;
+            switch( accessor.getType() ) {
+                case INT:
+                    int intValue = accessor.getInt( object );
+                    timed( start );
+                    out().number( (long) intValue );
+                    break;
+                case LONG:
+                    long longValue = accessor.getLong( object );
+                    timed( start );
+                    out().number( longValue );
+                    break;
+                case FLOAT:
+                    float floatValue = (float) accessor.getDouble( object );
+                    timed( start );
+                    out().number( floatValue );
+                    break;
+                default:
+                    double doubleValue = accessor.getDouble( object );
+                    timed( start );
+                    out().number( doubleValue );
+            }
+        }
+
+        private Object get(SerializationPlan.Property prop, Object object) throws Exception {
+            long start = timing ? System.nanoTime() : 0;
+            Object value = prop.getAccessor().get( object );
+            timed( start );
             return value;
         }
 
-        private Class<?> findBeanClass(Object object) {
-            try {
-                Class[] classes = object.getClass().getInterfaces();
-                for( Class clazz : classes ) {
-                    if( clazz.getName().equals("org.hibernate.proxy.HibernateProxy") ) {
-                        Method method = object.getClass().getMethod("getHibernateLazyInitializer");
-                        Object initializer = method.invoke( object );
-                        Method pmethod = initializer.getClass().getMethod("getPersistentClass");
-                        return  (Class<?>)pmethod.invoke( initializer );
-                    }
-                }
-            } catch (IllegalAccessException e) {
-            } catch (NoSuchMethodException e) {
-            } catch (InvocationTargetException e) {
+        /**
+         * Adds the time since start to the time spent in getters when getters are being timed.
+         */
+        private void timed(long start) {
+            if( timing ) {
+                stats.getterTime( System.nanoTime() - start );
             }
-            return object.getClass();
         }
 
-        protected abstract boolean isIncluded( PropertyDescriptor prop );
+        /**
+         * Writes one of the reference mode attributes.  The id is quoted and bypasses any
+         * transformer registered for the current path.
+         */
+        private void reference(String key, int id) {
+            defer( true, key, null );
+            out().string( Integer.toString( id ) );
+            wrote();
+        }
 
-        protected boolean isValidField(Field field) {
-            return !Modifier.isStatic( field.getModifiers() ) && Modifier.isPublic( field.getModifiers() ) && !Modifier.isTransient( field.getModifiers() );
+        private SerializationPlan plan( Object object ) {
+            try {
+                return planFor( object );
+            } catch( IntrospectionException e ) {
+                throw new JSONException( "Error trying to serialize path: " + path.toString(), e );
+            }
         }
 
-        protected boolean addComma(boolean firstField) {
-            if ( !firstField ) {
-                add(',');
-            } else {
-                firstField = false;
+        private SerializationPlan planFor( Object object ) throws IntrospectionException {
+            SerializationPlan plan = plans.get( object.getClass() );
+            if( plan == null ) {
+                ProxyResolver proxyResolver = findProxyResolver( object.getClass() );
+                GeneratedAccessor generated = proxyResolver == null ? GeneratedAccessor.find( object.getClass() ) : null;
+                if( generated != null ) {
+                    plan = generatedPlan( object.getClass(), generated );
+                    plans.put( object.getClass(), plan );
+                    return plan;
+                }
+                Class<?> beanClass = proxyResolver != null ? proxyResolver.getTargetClass( object ) : object.getClass();
+                List<SerializationPlan.Property> properties = new ArrayList<SerializationPlan.Property>();
+                BeanInfo info = Introspector.getBeanInfo( beanClass );
+                for( PropertyDescriptor prop : info.getPropertyDescriptors() ) {
+                    Method accessor = prop.getReadMethod();
+                    if( accessor != null ) {
+                        String name = prop.getName();
+                        properties.add( new SerializationPlan.Property( name, matcher.symbol( name ), PropertyAccessor.forMethod( accessor ), isIncludedByDefault( prop ), isPathSensitive( name ), SerializationPlan.isScalar( accessor.getReturnType() ) ) );
+                    }
+                }
+                List<SerializationPlan.Property> fields = new ArrayList<SerializationPlan.Property>();
+                for( Class current = object.getClass(); current != null; current = current.getSuperclass() ) {
+                    for( Field field : current.getDeclaredFields() ) {
+                        if( isValidField( field ) ) {
+                            fields.add( new SerializationPlan.Property( field.getName(), matcher.symbol( field.getName() ), PropertyAccessor.forField( field ), true, false, SerializationPlan.isScalar( field.getType() ) ) );
+                        }
+                    }
+                }
+                plan = new SerializationPlan( beanClass, properties, fields, proxyResolver );
+                plans.put( object.getClass(), plan );
             }
-            return firstField;
+            return plan;
         }
 
-        protected void beginObject() {
-            if( prettyPrint ) {
-                if( insideArray ) {
-                    indent( amount );
+        /**
+         * Plans a class from its generated accessor, which already knows its properties and
+         * fields, so the class is never introspected.
+         */
+        private SerializationPlan generatedPlan( Class<?> beanClass, GeneratedAccessor generated ) {
+            List<SerializationPlan.Property> properties = new ArrayList<SerializationPlan.Property>();
+            List<SerializationPlan.Property> fields = new ArrayList<SerializationPlan.Property>();
+            for( int i = 0; i < generated.size(); i++ ) {
+                String name = generated.getName( i );
+                PropertyAccessor accessor = PropertyAccessor.forGenerated( generated, i );
+                if( generated.isField( i ) ) {
+                    fields.add( new SerializationPlan.Property( name, matcher.symbol( name ), accessor, true, false, generated.isScalar( i ) ) );
+                } else {
+                    properties.add( new SerializationPlan.Property( name, matcher.symbol( name ), accessor, isIncludedByDefault( generated, i ), isPathSensitive( name ), generated.isScalar( i ) ) );
                 }
-                amount += 4;
             }
-            add( '{' );
+            return new SerializationPlan( beanClass, properties, fields, null );
         }
 
-        protected void endObject() {
-            if( prettyPrint ) {
-                addNewline();
-                amount -= 4;
-                indent( amount );
+        private boolean isPathSensitive( String name ) {
+            for( PathExpression expression : pathExpressions ) {
+                if( expression.canMatch( name ) ) {
+                    return true;
+                }
             }
-            add( '}' );
+            return false;
         }
 
-        private void beginArray() {
-            if( prettyPrint ) {
-                amount += 4;
-                insideArray = true;
+        private boolean isIncluded( SerializationPlan.Property prop ) {
+            if( prop.isPathSensitive() ) {
+                PathExpression expression = matcherState.getMatch();
+                if( expression != null ) {
+                    return expression.isIncluded();
+                }
             }
-            add('[');
+            return prop.isIncludedByDefault();
         }
 
-        private void endArray() {
-            if( prettyPrint ) {
-                addNewline();
-                amount -= 4;
-                insideArray = false;
-                indent( amount );
+        private Object doTransform(Object value) {
+            Transformer transformer = findTransformer();
+            if( transformer != null ) {
+                value = transformer.transform( value );
             }
-            add(']');
+            return value;
         }
 
-        protected void add( char c ) {
-            builder.append( c );
+        private Transformer findTransformer() {
+            return transformations.isEmpty() ? null : transformations.get( path );
         }
 
-        private void indent(int amount) {
-            for( int i = 0; i < amount; i++ ) {
-                builder.append( " " );
+        private ProxyResolver findProxyResolver(Class<?> type) {
+            for( ProxyResolver resolver : proxyResolvers ) {
+                if( resolver.isProxy( type ) ) {
+                    return resolver;
+                }
             }
+            return ProxyResolvers.find( type );
         }
 
-        private void addNewline() {
-            builder.append("\n");
+        protected abstract boolean isIncludedByDefault( PropertyDescriptor prop );
+
+        protected abstract boolean isIncludedByDefault( GeneratedAccessor accessor, int property );
+
+        protected boolean isValidField(Field field) {
+            return !Modifier.isStatic( field.getModifiers() ) && Modifier.isPublic( field.getModifiers() ) && !Modifier.isTransient( field.getModifiers() );
         }
 
-        protected void add( Object value ) {
-            builder.append( value );
+        protected void beginObject() {
+            enter();
+            out().beginObject();
         }
 
-        protected void add(Object key, Object value, boolean prependComma) {
+        protected void endObject() {
+            out.endObject();
+            depth--;
+        }
+
+        private void beginArray() {
+            enter();
+            out().beginArray();
+        }
+
+        private void endArray() {
+            out.endArray();
+            depth--;
+        }
+
+        private void enter() {
+            depth++;
+            if( stats != null ) {
+                stats.depth( depth );
+            }
+        }
+
+        /**
+         * @return the writer, once the key held back for the value about to be written is.
+         */
+        private TokenWriter out() {
+            if( pending ) writePending();
+            return out;
+        }
+
+        protected boolean add(Object key, Object value) {
         	if(ignoreNulls && value == null)
-        		return;
+        		return false;
         	
-            int start = builder.length();
-            addComma( prependComma );
-            addAttribute( key );
+            defer( true, key, null );
+            json( value );
+            return wrote();
+        }
+
+        private boolean add(SerializationPlan.Property prop, Object value) {
+            if(ignoreNulls && value == null)
+                return false;
 
-            int len = builder.length();
+            defer( true, null, prop );
             json( value );
-            if( len == builder.length() ) {
-                builder.delete( start, len ); // erase the attribute key we didn't output anything.
-            }
+            return wrote();
         }
 
-        private void addAttribute(Object key) {
-            if( prettyPrint ) {
-                addNewline();
-                indent( amount );
-            }
-            builder.append("\"");
-            builder.append( key );
-            builder.append( "\"" );
-            builder.append( ":" );
-            if( prettyPrint ) {
-                builder.append(" ");
-            }
+        /**
+         * Holds back the attribute key in front of the next value, or just notes that a value
+         * is next in an array.  The key is only written once that value writes something, so
+         * nothing has to be erased from the output when a value turns out to be empty.
+         */
+        private void defer(boolean attribute, Object key, SerializationPlan.Property prop) {
+            pending = true;
+            pendingAttribute = attribute;
+            pendingKey = key;
+            pendingProperty = prop;
         }
 
-        private void unicode(char c) {
-            add("\\u");
-            int n = c;
-            for (int i = 0; i < 4; ++i) {
-                int digit = (n & 0xf000) >> 12;
-                add(JSONSerializer.HEX[digit]);
-                n <<= 4;
-            }
+        /**
+         * @return true if the value following the last call to defer wrote anything.
+         */
+        private boolean wrote() {
+            boolean wrote = !pending;
+            pending = false;
+            pendingKey = null;
+            pendingProperty = null;
+            return wrote;
         }
 
-        protected PathExpression matches(PropertyDescriptor prop, List<PathExpression> expressions) {
-            for( PathExpression expr : expressions ) {
-                if( expr.matches( path ) ) {
-                    return expr;
+        private void writePending() {
+            pending = false;
+            if( pendingAttribute ) {
+                if( pendingProperty == null ) {
+                    out.key( String.valueOf( pendingKey ) );
+                } else if( jsonOut != null ) {
+                    jsonOut.quotedKey( pendingProperty.getKey() );
+                } else {
+                    out.key( pendingProperty.getName() );
                 }
             }
-            return null;
         }
 
     }
 
     private class ShallowVisitor extends ObjectVisitor {
 
-        public ShallowVisitor() {
-            super();
+        public ShallowVisitor(TokenWriter out) {
+            super( out, false );
         }
 
-        public ShallowVisitor(boolean prettyPrint) {
-            super(prettyPrint);
+        public ShallowVisitor(TokenWriter out, boolean prettyPrint) {
+            super( out, false, prettyPrint );
         }
 
-        protected boolean isIncluded( PropertyDescriptor prop ) {
-            PathExpression expression = matches( prop, pathExpressions);
-            if( expression != null ) {
-                return expression.isIncluded();
-            }
+        protected ObjectVisitor newVisitor( TokenWriter out ) {
+            return new ShallowVisitor( out );
+        }
 
+        protected boolean isIncludedByDefault( PropertyDescriptor prop ) {
             Method accessor = prop.getReadMethod();
             if( accessor.isAnnotationPresent( JSON.class ) ) {
                 return accessor.getAnnotation(JSON.class).include();
             }
 
             Class propType = prop.getPropertyType();
-            return !(propType.isArray() || Iterable.class.isAssignableFrom(propType) || Map.class.isAssignableFrom(propType));
+            return !(propType.isArray() || Iterable.class.isAssignableFrom(propType) || Map.class.isAssignableFrom(propType)
+                    || Iterator.class.isAssignableFrom(propType) || Spliterator.class.isAssignableFrom(propType) || BaseStream.class.isAssignableFrom(propType));
+        }
+
+        protected boolean isIncludedByDefault( GeneratedAccessor accessor, int property ) {
+            if( accessor.isAnnotated( property ) ) {
+                return accessor.isIncluded( property );
+            }
+            return !accessor.isContainer( property );
         }
     }
 
     private class DeepVisitor extends ObjectVisitor {
 
-        public DeepVisitor() {
-            super();
+        public DeepVisitor(TokenWriter out) {
+            super( out, true );
         }
 
-        public DeepVisitor(boolean prettyPrint) {
-            super(prettyPrint);
+        public DeepVisitor(TokenWriter out, boolean prettyPrint) {
+            super( out, true, prettyPrint );
         }
 
-        protected boolean isIncluded( PropertyDescriptor prop ) {
-            PathExpression expression = matches( prop, pathExpressions);
-            if( expression != null ) {
-                return expression.isIncluded();
-            }
+        protected ObjectVisitor newVisitor( TokenWriter out ) {
+            return new DeepVisitor( out );
+        }
 
+        protected boolean isIncludedByDefault( PropertyDescriptor prop ) {
             Method accessor = prop.getReadMethod();
             if( accessor.isAnnotationPresent( JSON.class ) ) {
                 return accessor.getAnnotation(JSON.class).include();
@@ -823,5 +2123,12 @@ public class JSONSerializer {
 
             return true;
         }
+
+        protected boolean isIncludedByDefault( GeneratedAccessor accessor, int property ) {
+            if( accessor.isAnnotated( property ) ) {
+                return accessor.isIncluded( property );
+            }
+            return true;
+        }
     }
 }
@@ -0,0 +1,477 @@
+package flexjson;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the tokens of a document as JSON text into an {@link flexjson.OutputHandler}, which
+ * decides where the characters go and how they're encoded.  The writer quotes and escapes
+ * strings, formats numbers without intermediate Strings, puts the commas between values and
+ * writes binary data as Base64 strings.  In htmlSafe mode the characters &lt;, &gt; and &amp;
+ * and the separators U+2028 and U+2029 are escaped as well, see
+ * {@link flexjson.JSONSerializer#htmlSafe(boolean)}, and pretty printing puts values on lines
+ * of their own indented by their depth.  The serialize methods of JSONSerializer that write
+ * JSON text use one of these set up with the serializer's own options.
+ */
+public class JSONTokenWriter implements TokenWriter {
+
+    // escape sequences for the ASCII range, null where the character is written as is
+    private final static String[] ESCAPES = new String[128];
+    private final static String[] HTML_ESCAPES;
+    private final static char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    // bytes encoded at a time, a multiple of 3 so only the last chunk needs padding
+    private final static int BASE64_CHUNK = 768;
+
+    static {
+        for( char c = 0; c < 0x20; c++ ) {
+            ESCAPES[c] = unicodeEscape( c );
+        }
+        ESCAPES[0x7F] = unicodeEscape( (char) 0x7F );
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\f'] = "\\f";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['\t'] = "\\t";
+
+        HTML_ESCAPES = ESCAPES.clone();
+        HTML_ESCAPES['<'] = unicodeEscape( '<' );
+        HTML_ESCAPES['>'] = unicodeEscape( '>' );
+        HTML_ESCAPES['&'] = unicodeEscape( '&' );
+    }
+
+    private final OutputHandler out;
+    private final boolean htmlSafe;
+    private final boolean prettyPrint;
+    // for each open object or array, true once something was written in it
+    private boolean[] written = new boolean[ 16 ];
+    private int depth = 0;
+    // true between a key and its value, which needs no separator
+    private boolean afterKey = false;
+    private int amount = 0;
+    private boolean insideArray = false;
+    private final char[] digits = new char[ NumberFormatter.MAX_LENGTH ];
+    private char[] encoded;
+
+    public JSONTokenWriter( OutputHandler out ) {
+        this( out, false, false );
+    }
+
+    /**
+     * @param htmlSafe true to escape the characters that are special to HTML.
+     * @param prettyPrint true to indent the output.
+     */
+    public JSONTokenWriter( OutputHandler out, boolean htmlSafe, boolean prettyPrint ) {
+        this.out = out;
+        this.htmlSafe = htmlSafe;
+        this.prettyPrint = prettyPrint;
+    }
+
+    public void beginObject() {
+        value();
+        if( prettyPrint ) {
+            if( insideArray ) {
+                indent( amount );
+            }
+            amount += 4;
+        }
+        out.write( '{' );
+        push();
+    }
+
+    public void endObject() {
+        depth--;
+        if( prettyPrint ) {
+            out.write( '\n' );
+            amount -= 4;
+            indent( amount );
+        }
+        out.write( '}' );
+    }
+
+    public void beginArray() {
+        value();
+        if( prettyPrint ) {
+            amount += 4;
+            insideArray = true;
+        }
+        out.write( '[' );
+        push();
+    }
+
+    public void endArray() {
+        depth--;
+        if( prettyPrint ) {
+            out.write( '\n' );
+            amount -= 4;
+            insideArray = false;
+            indent( amount );
+        }
+        out.write( ']' );
+    }
+
+    public void key( String name ) {
+        attribute();
+        out.write( '\"' );
+        escaped( name );
+        out.write( prettyPrint ? "\": " : "\":" );
+        afterKey = true;
+    }
+
+    /**
+     * Writes a key that's already quoted and followed by its colon, like the keys of a
+     * {@link SerializationPlan}, as it is.
+     */
+    void quotedKey( String quoted ) {
+        attribute();
+        out.write( quoted );
+        if( prettyPrint ) {
+            out.write( ' ' );
+        }
+        afterKey = true;
+    }
+
+    /**
+     * Writes the literal text a {@link SerializationPlan.Template} has in front of the first
+     * value of a bean, the opening brace and the key, as it is.  Only for writers that don't
+     * pretty print.
+     */
+    void opening( String text ) {
+        value();
+        out.write( text );
+        push();
+        written[ depth - 1 ] = true;
+        afterKey = true;
+    }
+
+    /**
+     * Writes the literal text a template has in front of any later value of a bean, the comma
+     * and the key, as it is.
+     */
+    void separator( String text ) {
+        out.write( text );
+        afterKey = true;
+    }
+
+    /**
+     * Writes a bean of a template none of whose values were written.
+     */
+    void emptyObject() {
+        value();
+        out.write( "{}" );
+    }
+
+    boolean isPrettyPrint() {
+        return prettyPrint;
+    }
+
+    public void string( String value ) {
+        value();
+        out.write( '\"' );
+        escaped( value );
+        out.write( '\"' );
+    }
+
+    public void string( char[] chars, int start, int end ) {
+        value();
+        out.write( '\"' );
+        if( isClean( chars, start, end ) ) {
+            out.write( chars, start, end );
+        } else {
+            escaped( new String( chars, start, end - start ) );
+        }
+        out.write( '\"' );
+    }
+
+    public void number( long value ) {
+        value();
+        out.write( digits, 0, NumberFormatter.format( value, digits ) );
+    }
+
+    public void number( double value ) {
+        value();
+        int length = NumberFormatter.format( value, digits );
+        if( length < 0 ) {
+            out.write( Double.toString( value ) );
+        } else {
+            out.write( digits, 0, length );
+        }
+    }
+
+    public void number( float value ) {
+        value();
+        int length = NumberFormatter.format( value, digits );
+        if( length < 0 ) {
+            out.write( Float.toString( value ) );
+        } else {
+            out.write( digits, 0, length );
+        }
+    }
+
+    public void number( Number value ) {
+        value();
+        out.write( String.valueOf( value ) );
+    }
+
+    public void bool( boolean value ) {
+        value();
+        out.write( value ? "true" : "false" );
+    }
+
+    public void nul() {
+        value();
+        out.write( "null" );
+    }
+
+    /**
+     * Writes the bytes as a string holding them in standard Base64 with padding, encoded
+     * straight into the output a chunk at a time.
+     */
+    public void bytes( byte[] bytes, int offset, int length ) {
+        value();
+        out.write( '\"' );
+        base64( bytes, offset, length );
+        out.write( '\"' );
+    }
+
+    /**
+     * See {@link #bytes(byte[], int, int)}.  Buffers backed by an array are encoded from the
+     * array, others are read a chunk at a time through a duplicate.
+     */
+    public void bytes( ByteBuffer bytes ) {
+        value();
+        out.write( '\"' );
+        if( bytes.hasArray() ) {
+            base64( bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining() );
+        } else {
+            // read through a duplicate so the caller's buffer keeps its position
+            ByteBuffer source = bytes.duplicate();
+            byte[] chunk = new byte[ Math.min( source.remaining(), BASE64_CHUNK ) ];
+            while( source.hasRemaining() ) {
+                int count = Math.min( source.remaining(), chunk.length );
+                source.get( chunk, 0, count );
+                base64( chunk, 0, count );
+            }
+        }
+        out.write( '\"' );
+    }
+
+    /**
+     * Copies the fragment to the output as it is, or writes null when it's empty.  In htmlSafe
+     * mode the characters escaped in strings are escaped in the fragment too, which can only
+     * hold them inside strings if it's valid.  Pretty printing doesn't reformat the fragment.
+     */
+    public void raw( RawJson json ) {
+        value();
+        if( json.isEmpty() ) {
+            out.write( "null" );
+            return;
+        }
+        if( !htmlSafe ) {
+            json.write( out );
+            return;
+        }
+        String value = json.toString();
+        int last = 0;
+        int len = value.length();
+        for( int i = 0; i < len; i++ ) {
+            char c = value.charAt(i);
+            if( c == '<' || c == '>' || c == '&' ) {
+                last = write( value, last, i, HTML_ESCAPES[c] );
+            } else if( c == '\u2028' || c == '\u2029' ) {
+                last = write( value, last, i, c == '\u2028' ? "\\u2028" : "\\u2029" );
+            }
+        }
+        if( last < len ) {
+            out.write( value, last, len );
+        }
+    }
+
+    /**
+     * Buffers in a StringBuilder.  The text it holds starts with the comma separating it from
+     * the elements before it.
+     */
+    public TokenWriter newBuffer() {
+        JSONTokenWriter buffer = new JSONTokenWriter( new StringBuilderOutputHandler(), htmlSafe, prettyPrint );
+        buffer.push();
+        buffer.written[0] = true;
+        buffer.amount = amount;
+        buffer.insideArray = insideArray;
+        return buffer;
+    }
+
+    public void append( TokenWriter buffer ) {
+        String text = ((JSONTokenWriter) buffer).out.toString();
+        if( text.length() == 0 ) {
+            return;
+        }
+        // the elements before it may all have been left out, then there's nothing to separate
+        int start = written[ depth - 1 ] ? 0 : 1;
+        written[ depth - 1 ] = true;
+        out.write( text, start, text.length() );
+    }
+
+    public void flush() {
+        out.flush();
+    }
+
+    public void flushDestination() {
+        out.flushDestination();
+    }
+
+    public long getLength() {
+        return out.getLength();
+    }
+
+    /**
+     * Writes what goes in front of a value: nothing after a key, otherwise the comma
+     * separating it from the element before it in an array.
+     */
+    private void value() {
+        if( afterKey ) {
+            afterKey = false;
+        } else if( depth > 0 ) {
+            if( written[ depth - 1 ] ) {
+                out.write( ',' );
+            } else {
+                written[ depth - 1 ] = true;
+            }
+            if( prettyPrint ) {
+                out.write( '\n' );
+            }
+        }
+    }
+
+    /**
+     * Writes what goes in front of a key: the comma separating it from the attribute before it.
+     */
+    private void attribute() {
+        if( written[ depth - 1 ] ) {
+            out.write( ',' );
+        } else {
+            written[ depth - 1 ] = true;
+        }
+        if( prettyPrint ) {
+            out.write( '\n' );
+            indent( amount );
+        }
+    }
+
+    private void push() {
+        if( depth == written.length ) {
+            boolean[] grown = new boolean[ depth * 2 ];
+            System.arraycopy( written, 0, grown, 0, depth );
+            written = grown;
+        }
+        written[ depth++ ] = false;
+    }
+
+    private void indent( int amount ) {
+        for( int i = 0; i < amount; i++ ) {
+            out.write( ' ' );
+        }
+    }
+
+    /**
+     * Writes the value with the characters JSON requires escaped.  The characters between
+     * two escapes are copied to the output in one go, and ASCII characters are looked up
+     * in a table rather than tested one condition after the other.
+     */
+    private void escaped( String value ) {
+        String[] escapes = htmlSafe ? HTML_ESCAPES : ESCAPES;
+        int last = 0;
+        int len = value.length();
+        for( int i = 0; i < len; i++ ) {
+            char c = value.charAt(i);
+            String escape;
+            if( c < 128 ) {
+                escape = escapes[c];
+                if( escape == null ) continue;
+            } else if( c <= 0x9F ) {
+                escape = unicodeEscape( c );
+            } else if( htmlSafe && ( c == '\u2028' || c == '\u2029' ) ) {
+                escape = c == '\u2028' ? "\\u2028" : "\\u2029";
+            } else {
+                continue;
+            }
+            last = write( value, last, i, escape );
+        }
+        if( last < len ) {
+            out.write( value, last, len );
+        }
+    }
+
+    /**
+     * @return true if none of the characters needs escaping.
+     */
+    private boolean isClean( char[] chars, int start, int end ) {
+        String[] escapes = htmlSafe ? HTML_ESCAPES : ESCAPES;
+        for( int i = start; i < end; i++ ) {
+            char c = chars[i];
+            if( c < 128 ? escapes[c] != null : c <= 0x9F || ( htmlSafe && ( c == '\u2028' || c == '\u2029' ) ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the characters of value from begin up to end followed by the escape of the
+     * character at end.
+     *
+     * @return the index following the escaped character.
+     */
+    private int write( String value, int begin, int end, String escape ) {
+        if( begin < end ) {
+            out.write( value, begin, end );
+        }
+        out.write( escape );
+        return end + 1;
+    }
+
+    /**
+     * Encodes the bytes as Base64 into a reused buffer, writing it out whenever it fills.
+     * Padding is added after the last bytes, so every call but the last must be given a
+     * multiple of 3 bytes.
+     */
+    private void base64( byte[] bytes, int offset, int length ) {
+        if( encoded == null ) {
+            encoded = new char[ BASE64_CHUNK / 3 * 4 ];
+        }
+        char[] chars = encoded;
+        int end = offset + length;
+        int count = 0;
+        int i = offset;
+        for( ; i + 3 <= end; i += 3 ) {
+            int bits = ( bytes[i] & 0xFF ) << 16 | ( bytes[i + 1] & 0xFF ) << 8 | ( bytes[i + 2] & 0xFF );
+            chars[count++] = BASE64[ bits >>> 18 ];
+            chars[count++] = BASE64[ ( bits >>> 12 ) & 0x3F ];
+            chars[count++] = BASE64[ ( bits >>> 6 ) & 0x3F ];
+            chars[count++] = BASE64[ bits & 0x3F ];
+            if( count == chars.length ) {
+                out.write( chars, 0, count );
+                count = 0;
+            }
+        }
+        if( i < end ) {
+            int bits = ( bytes[i] & 0xFF ) << 16 | ( i + 1 < end ? ( bytes[i + 1] & 0xFF ) << 8 : 0 );
+            chars[count++] = BASE64[ bits >>> 18 ];
+            chars[count++] = BASE64[ ( bits >>> 12 ) & 0x3F ];
+            chars[count++] = i + 1 < end ? BASE64[ ( bits >>> 6 ) & 0x3F ] : '=';
+            chars[count++] = '=';
+        }
+        if( count > 0 ) {
+            out.write( chars, 0, count );
+        }
+    }
+
+    private static String unicodeEscape( char c ) {
+        char[] escape = { '\\', 'u', 0, 0, 0, 0 };
+        int n = c;
+        for( int i = 2; i < 6; ++i ) {
+            escape[i] = JSONSerializer.HEX[ ( n & 0xf000 ) >> 12 ];
+            n <<= 4;
+        }
+        return new String( escape );
+    }
+}
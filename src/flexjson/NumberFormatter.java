@@ -0,0 +1,240 @@
+package flexjson;
+
+/**
+ * Internal class used by {@link flexjson.JSONSerializer} to write numbers as characters into a
+ * reusable array instead of going through a String.  Integers are written digit by digit.
+ * Doubles and floats are written as the shortest decimal that reads back as the same value,
+ * laid out the way {@link Double#toString(double)} and {@link Float#toString(float)} do it:
+ * at least one digit after the point, and computerized scientific notation outside of
+ * 10<sup>-3</sup> to 10<sup>7</sup>.
+ * <p>
+ * The decimal is found by trying ever shorter candidates near the value scaled by a power of
+ * ten.  A candidate is only accepted when converting it back gives the value again, and the
+ * candidates are kept small enough that this conversion is a single correctly rounded operation
+ * on exact operands, which is exactly what parsing would produce.  At those lengths only one
+ * candidate can convert back, so the shortest one found is also the closest one.  Values
+ * needing more digits, or outside the range this works for, are left to Double.toString().
+ * </p>
+ */
+final class NumberFormatter {
+
+    /**
+     * The most characters any of the format methods will write.
+     */
+    public static final int MAX_LENGTH = 32;
+
+    private static final int MAX_DOUBLE_DIGITS = 15;
+    private static final int MAX_FLOAT_DIGITS = 6;
+    private static final long[] LONG_POWERS = new long[ 19 ];
+    // every power of ten up to 10^22 is exact as a double, and up to 10^10 as a float
+    private static final double[] DOUBLE_POWERS = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final float[] FLOAT_POWERS = {
+        1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+
+    static {
+        LONG_POWERS[0] = 1;
+        for( int i = 1; i < LONG_POWERS.length; i++ ) {
+            LONG_POWERS[i] = LONG_POWERS[ i - 1 ] * 10;
+        }
+    }
+
+    private NumberFormatter() {
+    }
+
+    /**
+     * Writes the value exactly as {@link Long#toString(long)} would.
+     *
+     * @return the number of characters written at the start of buffer.
+     */
+    public static int format( long value, char[] buffer ) {
+        int position = 0;
+        if( value < 0 ) {
+            buffer[ position++ ] = '-';
+        } else {
+            value = -value;
+        }
+        // digits are taken off the negative value so Long.MIN_VALUE needs no special case
+        int end = position + digits( value );
+        for( int i = end - 1; i >= position; i-- ) {
+            long quotient = value / 10;
+            buffer[i] = (char) ( '0' + ( quotient * 10 - value ) );
+            value = quotient;
+        }
+        return end;
+    }
+
+    /**
+     * Writes the shortest decimal that reads back as the given double.
+     *
+     * @return the number of characters written at the start of buffer, or -1 when the value
+     * has to be written with Double.toString() instead.
+     */
+    public static int format( double value, char[] buffer ) {
+        if( Double.isNaN( value ) || Double.isInfinite( value ) ) {
+            return -1;
+        }
+        int position = 0;
+        if( Double.doubleToRawLongBits( value ) < 0 ) {
+            buffer[ position++ ] = '-';
+            value = -value;
+        }
+        if( value == 0 ) {
+            return zero( buffer, position );
+        }
+        int exponent = (int) Math.floor( Math.log10( value ) );
+        for( int q = exponent; q >= exponent - MAX_DOUBLE_DIGITS; q-- ) {
+            if( q > 22 || q < -22 ) {
+                return -1;
+            }
+            double scaled = q < 0 ? value * DOUBLE_POWERS[ -q ] : value / DOUBLE_POWERS[q];
+            if( scaled >= LONG_POWERS[ MAX_DOUBLE_DIGITS ] ) {
+                return -1;
+            }
+            long rounded = Math.round( scaled );
+            for( long candidate = rounded - 1; candidate <= rounded + 1; candidate++ ) {
+                if( candidate > 0 && candidate < LONG_POWERS[ MAX_DOUBLE_DIGITS ] && toDouble( candidate, q ) == value ) {
+                    return layout( candidate, q, buffer, position );
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the shortest decimal that reads back as the given float.
+     *
+     * @return the number of characters written at the start of buffer, or -1 when the value
+     * has to be written with Float.toString() instead.
+     */
+    public static int format( float value, char[] buffer ) {
+        if( Float.isNaN( value ) || Float.isInfinite( value ) ) {
+            return -1;
+        }
+        int position = 0;
+        if( Float.floatToRawIntBits( value ) < 0 ) {
+            buffer[ position++ ] = '-';
+            value = -value;
+        }
+        if( value == 0 ) {
+            return zero( buffer, position );
+        }
+        int exponent = (int) Math.floor( Math.log10( value ) );
+        for( int q = exponent; q >= exponent - MAX_FLOAT_DIGITS; q-- ) {
+            if( q > 10 || q < -10 ) {
+                return -1;
+            }
+            double scaled = q < 0 ? value * DOUBLE_POWERS[ -q ] : value / DOUBLE_POWERS[q];
+            if( scaled >= LONG_POWERS[ MAX_FLOAT_DIGITS ] ) {
+                return -1;
+            }
+            long rounded = Math.round( scaled );
+            for( long candidate = rounded - 1; candidate <= rounded + 1; candidate++ ) {
+                if( candidate > 0 && candidate < LONG_POWERS[ MAX_FLOAT_DIGITS ] && toFloat( candidate, q ) == value ) {
+                    return layout( candidate, q, buffer, position );
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Both operands are exact so the single division or multiplication rounds the decimal
+     * to the nearest double just like Double.parseDouble() does.
+     */
+    private static double toDouble( long digits, int q ) {
+        return q < 0 ? digits / DOUBLE_POWERS[ -q ] : digits * DOUBLE_POWERS[q];
+    }
+
+    private static float toFloat( long digits, int q ) {
+        return q < 0 ? (float) digits / FLOAT_POWERS[ -q ] : (float) digits * FLOAT_POWERS[q];
+    }
+
+    private static int zero( char[] buffer, int position ) {
+        buffer[ position++ ] = '0';
+        buffer[ position++ ] = '.';
+        buffer[ position++ ] = '0';
+        return position;
+    }
+
+    /**
+     * Lays out digits * 10^q starting at position.  Like Double.toString() there's always
+     * at least one digit after the point, even if it's a zero.
+     */
+    private static int layout( long digits, int q, char[] buffer, int position ) {
+        // the first candidate tried may have one digit too many when log10 lands just short
+        while( digits % 10 == 0 ) {
+            digits /= 10;
+            q++;
+        }
+        int length = digits( -digits );
+        int exponent = q + length - 1;
+        if( exponent >= -3 && exponent < 7 ) {
+            if( exponent < 0 ) {
+                buffer[ position++ ] = '0';
+                buffer[ position++ ] = '.';
+                for( int i = -1; i > exponent; i-- ) {
+                    buffer[ position++ ] = '0';
+                }
+                return write( digits, length, buffer, position );
+            } else if( length <= exponent + 1 ) {
+                position = write( digits, length, buffer, position );
+                for( int i = length; i <= exponent; i++ ) {
+                    buffer[ position++ ] = '0';
+                }
+                buffer[ position++ ] = '.';
+                buffer[ position++ ] = '0';
+                return position;
+            } else {
+                return point( digits, length, exponent + 1, buffer, position );
+            }
+        }
+        position = point( digits, length, 1, buffer, position );
+        buffer[ position++ ] = 'E';
+        if( exponent < 0 ) {
+            buffer[ position++ ] = '-';
+            exponent = -exponent;
+        }
+        return write( exponent, digits( -exponent ), buffer, position );
+    }
+
+    /**
+     * Writes the digits with a decimal point after the first integerDigits of them.
+     */
+    private static int point( long digits, int length, int integerDigits, char[] buffer, int position ) {
+        if( length == integerDigits ) {
+            position = write( digits, length, buffer, position );
+            buffer[ position++ ] = '.';
+            buffer[ position++ ] = '0';
+            return position;
+        }
+        int end = write( digits, length, buffer, position );
+        int dot = position + integerDigits;
+        System.arraycopy( buffer, dot, buffer, dot + 1, end - dot );
+        buffer[ dot ] = '.';
+        return end + 1;
+    }
+
+    private static int write( long digits, int length, char[] buffer, int position ) {
+        int end = position + length;
+        for( int i = end - 1; i >= position; i-- ) {
+            buffer[i] = (char) ( '0' + digits % 10 );
+            digits /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * @return the number of decimal digits of a value given as zero or negative.
+     */
+    private static int digits( long negative ) {
+        int count = 1;
+        while( count < LONG_POWERS.length && negative <= -LONG_POWERS[ count ] ) {
+            count++;
+        }
+        return count;
+    }
+}
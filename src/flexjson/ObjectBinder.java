@@ -140,7 +140,7 @@ public class ObjectBinder<T> {
 
     public ObjectBinder use( String path, ClassLocator locator ) {
         Path p = path != null ? new Path( path.split("\\.") ) : new Path();
-        locators.put( p, locator );
+        locators.put( p.freeze(), locator );
         return this;
     }
 
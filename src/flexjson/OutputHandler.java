@@ -0,0 +1,37 @@
+package flexjson;
+
+/**
+ * Destination for the JSON text {@link flexjson.JSONTokenWriter} writes.  Implementations
+ * may buffer what they are handed, but must pass everything on once {@link #flush()} is called.
+ * Failures writing to the underlying destination are reported as {@link flexjson.JSONException}.
+ */
+public interface OutputHandler {
+
+    public OutputHandler write( char c );
+
+    public OutputHandler write( String text );
+
+    /**
+     * Writes the characters of text from start (inclusive) to end (exclusive).
+     */
+    public OutputHandler write( String text, int start, int end );
+
+    /**
+     * Writes the characters of the array from start (inclusive) to end (exclusive).
+     */
+    public OutputHandler write( char[] chars, int start, int end );
+
+    public void flush();
+
+    /**
+     * Passes everything on like {@link #flush()}, then flushes the destination itself so the
+     * output written so far reaches whoever is at the other end of it.
+     */
+    public void flushDestination();
+
+    /**
+     * @return how much output has been written so far, counted in the unit of the destination,
+     * chars or bytes.
+     */
+    public long getLength();
+}
@@ -1,49 +1,111 @@
 package flexjson;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.LinkedList;
 
 /**
  * Internal class used by Flexjson to represent a path to a field within a serialized stream.
+ * Fields are kept in an array alongside the hash of every prefix of the path, so adding or
+ * removing a field updates the hash in constant time and looking a path up in a map never
+ * rehashes it.  The hash is the same one {@link List#hashCode()} gives for the fields.  Use
+ * {@link #freeze()} to get a copy that is safe to keep as a map key.
  */
 public class Path {
-    LinkedList<String> path = new LinkedList<String>();
+    private String[] fields;
+    private int[] hashes;
+    private int size = 0;
+    private boolean frozen = false;
 
     public Path() {
+        this( 8 );
     }
 
     public Path( String... fields ) {
+        this( Math.max( fields.length, 8 ) );
         for (String field : fields) {
-            path.add(field);
+            enqueue( field );
         }
     }
 
+    private Path( int capacity ) {
+        this.fields = new String[ capacity ];
+        this.hashes = new int[ capacity ];
+    }
+
     public Path enqueue( String field ) {
-        path.add( field );
+        if( frozen ) {
+            throw new UnsupportedOperationException( "Path " + this + " is frozen" );
+        }
+        if( size == fields.length ) {
+            fields = Arrays.copyOf( fields, size * 2 );
+            hashes = Arrays.copyOf( hashes, size * 2 );
+        }
+        fields[ size ] = field;
+        hashes[ size ] = 31 * hashCode() + ( field == null ? 0 : field.hashCode() );
+        size++;
         return this;
     }
 
     public String pop() {
-        return path.removeLast();
+        if( frozen ) {
+            throw new UnsupportedOperationException( "Path " + this + " is frozen" );
+        }
+        String field = fields[ --size ];
+        fields[ size ] = null;
+        return field;
+    }
+
+    /**
+     * @return the field at the given depth of this path, starting at 0.
+     */
+    public String get( int index ) {
+        if( index >= size ) {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+        }
+        return fields[ index ];
     }
 
+    /**
+     * @return a copy of the fields in this path.
+     */
     public List<String> getPath() {
-        return path;
+        return Arrays.asList( Arrays.copyOf( fields, size ) );
     }
 
     public int length() {
-        return path.size();
+        return size;
+    }
+
+    /**
+     * Returns an immutable copy of this path.  Frozen paths are equal to, and hash the same
+     * as, any path holding the same fields so a path being built up while walking an object
+     * graph can be used to look up a frozen one in a map.
+     *
+     * @return a frozen copy of this path, or this path when it's already frozen.
+     */
+    public Path freeze() {
+        if( frozen ) {
+            return this;
+        }
+        Path copy = new Path( Math.max( size, 1 ) );
+        System.arraycopy( fields, 0, copy.fields, 0, size );
+        System.arraycopy( hashes, 0, copy.hashes, 0, size );
+        copy.size = size;
+        copy.frozen = true;
+        return copy;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
     }
 
     public String toString() {
         StringBuilder builder = new StringBuilder ( "[ " );
-        boolean afterFirst = false;
-        for( String current : path ) {
-            if( afterFirst ) {
+        for( int i = 0; i < size; i++ ) {
+            if( i > 0 ) {
                 builder.append( "." );
             }
-            builder.append( current );
-            afterFirst = true;
+            builder.append( fields[i] );
         }
         builder.append( " ]" );
         return builder.toString();
@@ -55,12 +117,17 @@ public class Path {
 
         Path path1 = (Path) o;
 
-        if (!path.equals(path1.path)) return false;
+        if (size != path1.size || hashCode() != path1.hashCode()) return false;
+        for( int i = size - 1; i >= 0; i-- ) {
+            String field = fields[i];
+            String other = path1.fields[i];
+            if( field != other && ( field == null || !field.equals( other ) ) ) return false;
+        }
 
         return true;
     }
 
     public int hashCode() {
-        return path.hashCode();
+        return size == 0 ? 1 : hashes[ size - 1 ];
     }
 }
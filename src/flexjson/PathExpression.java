@@ -37,7 +37,7 @@ public class PathExpression {
         int exprCurrentIndex = 0;
         int pathCurrentIndex = 0;
         while( pathCurrentIndex < path.length() ) {
-            String current = path.getPath().get( pathCurrentIndex );
+            String current = path.get( pathCurrentIndex );
             if( exprCurrentIndex < expression.length && expression[exprCurrentIndex].equals("*") ) {
                 exprCurrentIndex++;
             } else if( exprCurrentIndex < expression.length && expression[exprCurrentIndex].equals( current ) ) {
@@ -56,6 +56,26 @@ public class PathExpression {
         }
     }
 
+    /**
+     * Tells whether this expression could match any path whose last field is the given name.
+     * Without a trailing wildcard the last field of a matching path is always one of the
+     * terms of the expression, so anything else can be ruled out without walking a path.
+     *
+     * @param field the name of the last field in the path.
+     * @return false if no path ending in field can ever match this expression.
+     */
+    public boolean canMatch( String field ) {
+        if( expression.length > 0 && expression[ expression.length - 1 ].equals("*") ) {
+            return true;
+        }
+        for( String term : expression ) {
+            if( term.equals( field ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public boolean isWildcard() {
         return wildcard;
     }
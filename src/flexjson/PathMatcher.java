@@ -0,0 +1,176 @@
+package flexjson;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Internal class used by {@link flexjson.JSONSerializer} to evaluate all of its include and
+ * exclude expressions at once.  The expressions are compiled into a deterministic automaton
+ * whose states record how far every expression has got along the current path.  Adding a
+ * field to the path is a single transition, and each state knows the first expression, in the
+ * order they were added, that matches the path leading to it.  So deciding on a property costs
+ * the same no matter how deep the path is or how many expressions there are, and gives the
+ * same answer as trying {@link PathExpression#matches(Path)} on each expression in turn.
+ * States are created the first time a path reaches them and are safe to share between threads.
+ */
+final class PathMatcher {
+
+    private static final int DEAD = -1;
+    private static final int WILDCARD = -1;
+
+    private final PathExpression[] expressions;
+    private final int[][] terms;
+    private final Map<String,Integer> symbols = new HashMap<String,Integer>();
+    private final int other;
+    private final Map<Key,State> states = new ConcurrentHashMap<Key,State>();
+    private final State root;
+
+    PathMatcher( List<PathExpression> expressions ) {
+        this.expressions = expressions.toArray( new PathExpression[ expressions.size() ] );
+        this.terms = new int[ this.expressions.length ][];
+        for( int i = 0; i < this.expressions.length; i++ ) {
+            String[] expression = this.expressions[i].expression;
+            terms[i] = new int[ expression.length ];
+            for( int j = 0; j < expression.length; j++ ) {
+                if( expression[j].equals("*") ) {
+                    terms[i][j] = WILDCARD;
+                } else {
+                    Integer symbol = symbols.get( expression[j] );
+                    if( symbol == null ) {
+                        symbol = symbols.size();
+                        symbols.put( expression[j], symbol );
+                    }
+                    terms[i][j] = symbol;
+                }
+            }
+        }
+        this.other = symbols.size();
+        this.root = new State( new int[ this.expressions.length ], null );
+    }
+
+    /**
+     * @return the state for the empty path.  No expression matches it.
+     */
+    public State getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the input symbol to use for the given field name.  Every name that doesn't
+     * appear in any of the expressions shares the same symbol.
+     */
+    public int symbol( String field ) {
+        Integer symbol = symbols.get( field );
+        return symbol != null ? symbol : other;
+    }
+
+    private State intern( int[] positions ) {
+        Key key = new Key( positions );
+        State state = states.get( key );
+        if( state == null ) {
+            state = new State( positions, firstMatch( positions ) );
+            states.put( key, state );
+        }
+        return state;
+    }
+
+    private PathExpression firstMatch( int[] positions ) {
+        for( int i = 0; i < positions.length; i++ ) {
+            if( accepts( i, positions[i] ) ) {
+                return expressions[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Mirrors the end of {@link PathExpression#matches(Path)} for a non empty path.
+     */
+    private boolean accepts( int expression, int position ) {
+        if( position == DEAD ) {
+            return false;
+        }
+        int[] expr = terms[expression];
+        if( position > 0 && expr[ position - 1 ] == WILDCARD ) {
+            return position >= expr.length;
+        }
+        return true;
+    }
+
+    /**
+     * Mirrors a single pass of the loop in {@link PathExpression#matches(Path)} consuming
+     * one field of the path.
+     */
+    private int step( int expression, int position, int symbol ) {
+        if( position == DEAD ) {
+            return DEAD;
+        }
+        int[] expr = terms[expression];
+        while( position < expr.length && expr[ position ] == WILDCARD ) {
+            position++;
+        }
+        if( position < expr.length && expr[ position ] == symbol ) {
+            return position + 1;
+        } else if( position > 0 && expr[ position - 1 ] == WILDCARD ) {
+            return position;
+        } else {
+            return DEAD;
+        }
+    }
+
+    final class State {
+        private final int[] positions;
+        private final PathExpression match;
+        private final State[] next;
+
+        private State( int[] positions, PathExpression match ) {
+            this.positions = positions;
+            this.match = match;
+            this.next = new State[ other + 1 ];
+        }
+
+        /**
+         * @return the state reached by adding a field with the given symbol to the path.
+         */
+        public State next( int symbol ) {
+            State state = next[ symbol ];
+            if( state == null ) {
+                int[] stepped = new int[ positions.length ];
+                for( int i = 0; i < positions.length; i++ ) {
+                    stepped[i] = step( i, positions[i], symbol );
+                }
+                state = intern( stepped );
+                next[ symbol ] = state;
+            }
+            return state;
+        }
+
+        /**
+         * @return the first expression matching the path that leads to this state, or null.
+         */
+        public PathExpression getMatch() {
+            return match;
+        }
+    }
+
+    private static final class Key {
+        private final int[] positions;
+        private final int hash;
+
+        Key( int[] positions ) {
+            this.positions = positions;
+            this.hash = Arrays.hashCode( positions );
+        }
+
+        public boolean equals( Object o ) {
+            return o instanceof Key && Arrays.equals( positions, ((Key) o).positions );
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package flexjson;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Internal class used by {@link flexjson.JSONSerializer} to read the value of a bean property or
+ * public field.  Getters are bound through {@link LambdaMetafactory} so reading a property is a
+ * plain interface call the JIT can inline.  When a getter can't be bound that way, because its
+ * class isn't visible from Flexjson's class loader or the lookup is denied access, a constant
+ * {@link MethodHandle} is used instead, and plain reflection is the last resort.  Values come
+ * back boxed exactly as {@link Method#invoke} would return them.  Getters and fields of type int,
+ * long, float or double are also bound to a primitive interface so {@link #getInt(Object)},
+ * {@link #getLong(Object)} and {@link #getDouble(Object)} read them without boxing.  Classes
+ * with a {@link GeneratedAccessor} are read through it and need none of the above.
+ */
+abstract class PropertyAccessor {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType GETTER_TYPE = MethodType.methodType( Object.class, Object.class );
+
+    /**
+     * The primitive type a property can be read as without boxing.
+     */
+    enum Type { OBJECT, INT, LONG, FLOAT, DOUBLE }
+
+    public abstract Object get( Object target ) throws Exception;
+
+    public Type getType() {
+        return Type.OBJECT;
+    }
+
+    public int getInt( Object target ) throws Exception {
+        return ((Number) get( target )).intValue();
+    }
+
+    public long getLong( Object target ) throws Exception {
+        return ((Number) get( target )).longValue();
+    }
+
+    /**
+     * @return the value of a double property, or of a float property widened to a double.
+     */
+    public double getDouble( Object target ) throws Exception {
+        return ((Number) get( target )).doubleValue();
+    }
+
+    @SuppressWarnings({"unchecked"})
+    public static PropertyAccessor forMethod( Method method ) {
+        try {
+            MethodHandle handle = LOOKUP.unreflect( method );
+            Type type = typeOf( method.getReturnType() );
+            if( isVisible( method.getDeclaringClass() ) ) {
+                try {
+                    switch( type ) {
+                        case INT:
+                            return new IntFunctionAccessor( (ToIntFunction<Object>) bind( handle, method, ToIntFunction.class, "applyAsInt", int.class ) );
+                        case LONG:
+                            return new LongFunctionAccessor( (ToLongFunction<Object>) bind( handle, method, ToLongFunction.class, "applyAsLong", long.class ) );
+                        case FLOAT:
+                        case DOUBLE:
+                            return new DoubleFunctionAccessor( (ToDoubleFunction<Object>) bind( handle, method, ToDoubleFunction.class, "applyAsDouble", double.class ), type );
+                        default:
+                            return new FunctionAccessor( (Function<Object,Object>) bind( handle, method, Function.class, "apply", Object.class ) );
+                    }
+                } catch( Throwable e ) {
+                    // fall through to the method handle, the metafactory refused this getter.
+                }
+            }
+            return handleAccessor( handle, type );
+        } catch( IllegalAccessException e ) {
+            return new ReflectionAccessor( method );
+        }
+    }
+
+    public static PropertyAccessor forField( Field field ) {
+        try {
+            return handleAccessor( LOOKUP.unreflectGetter( field ), typeOf( field.getType() ) );
+        } catch( IllegalAccessException e ) {
+            return new FieldAccessor( field );
+        }
+    }
+
+    public static PropertyAccessor forGenerated( GeneratedAccessor accessor, int property ) {
+        switch( accessor.getType( property ) ) {
+            case GeneratedAccessor.INT:
+                return new GeneratedPropertyAccessor( accessor, property, Type.INT );
+            case GeneratedAccessor.LONG:
+                return new GeneratedPropertyAccessor( accessor, property, Type.LONG );
+            case GeneratedAccessor.FLOAT:
+                return new GeneratedPropertyAccessor( accessor, property, Type.FLOAT );
+            case GeneratedAccessor.DOUBLE:
+                return new GeneratedPropertyAccessor( accessor, property, Type.DOUBLE );
+            default:
+                return new GeneratedPropertyAccessor( accessor, property, Type.OBJECT );
+        }
+    }
+
+    private static PropertyAccessor handleAccessor( MethodHandle handle, Type type ) {
+        if( type == Type.OBJECT ) {
+            return new HandleAccessor( handle.asType( GETTER_TYPE ) );
+        }
+        return new PrimitiveHandleAccessor( handle.asType( GETTER_TYPE ), handle, type );
+    }
+
+    private static Type typeOf( Class<?> type ) {
+        if( type == int.class ) {
+            return Type.INT;
+        } else if( type == long.class ) {
+            return Type.LONG;
+        } else if( type == float.class ) {
+            return Type.FLOAT;
+        } else if( type == double.class ) {
+            return Type.DOUBLE;
+        }
+        return Type.OBJECT;
+    }
+
+    /**
+     * Binds the getter to a functional interface with a single method taking an Object and
+     * returning the given type.  Primitive getters are widened to that type, boxed otherwise.
+     */
+    private static Object bind( MethodHandle handle, Method method, Class<?> functionalInterface, String name, Class<?> returnType ) throws Throwable {
+        Class<?> instantiatedReturn = returnType == Object.class ? boxed( method.getReturnType() ) : returnType;
+        MethodType instantiated = MethodType.methodType( instantiatedReturn, method.getDeclaringClass() );
+        CallSite site = LambdaMetafactory.metafactory( LOOKUP, name, MethodType.methodType( functionalInterface ),
+                MethodType.methodType( returnType, Object.class ), handle, instantiated );
+        return site.getTarget().invoke();
+    }
+
+    /**
+     * Generated getters live in Flexjson's class loader so they can only reference classes
+     * that loader resolves to the very same class.
+     */
+    private static boolean isVisible( Class<?> type ) {
+        try {
+            return Class.forName( type.getName(), false, PropertyAccessor.class.getClassLoader() ) == type;
+        } catch( ClassNotFoundException e ) {
+            return false;
+        } catch( LinkageError e ) {
+            return false;
+        }
+    }
+
+    private static Class<?> boxed( Class<?> type ) {
+        return MethodType.methodType( type ).wrap().returnType();
+    }
+
+    private static final class FunctionAccessor extends PropertyAccessor {
+        private final Function<Object,Object> getter;
+
+        FunctionAccessor( Function<Object,Object> getter ) {
+            this.getter = getter;
+        }
+
+        public Object get( Object target ) {
+            return getter.apply( target );
+        }
+    }
+
+    private static final class IntFunctionAccessor extends PropertyAccessor {
+        private final ToIntFunction<Object> getter;
+
+        IntFunctionAccessor( ToIntFunction<Object> getter ) {
+            this.getter = getter;
+        }
+
+        public Type getType() {
+            return Type.INT;
+        }
+
+        public Object get( Object target ) {
+            return getter.applyAsInt( target );
+        }
+
+        public int getInt( Object target ) {
+            return getter.applyAsInt( target );
+        }
+    }
+
+    private static final class LongFunctionAccessor extends PropertyAccessor {
+        private final ToLongFunction<Object> getter;
+
+        LongFunctionAccessor( ToLongFunction<Object> getter ) {
+            this.getter = getter;
+        }
+
+        public Type getType() {
+            return Type.LONG;
+        }
+
+        public Object get( Object target ) {
+            return getter.applyAsLong( target );
+        }
+
+        public long getLong( Object target ) {
+            return getter.applyAsLong( target );
+        }
+    }
+
+    private static final class DoubleFunctionAccessor extends PropertyAccessor {
+        private final ToDoubleFunction<Object> getter;
+        private final Type type;
+
+        DoubleFunctionAccessor( ToDoubleFunction<Object> getter, Type type ) {
+            this.getter = getter;
+            this.type = type;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public Object get( Object target ) {
+            double value = getter.applyAsDouble( target );
+            return type == Type.FLOAT ? (Object) (float) value : (Object) value;
+        }
+
+        public double getDouble( Object target ) {
+            return getter.applyAsDouble( target );
+        }
+    }
+
+    private static final class HandleAccessor extends PropertyAccessor {
+        private final MethodHandle handle;
+
+        HandleAccessor( MethodHandle handle ) {
+            this.handle = handle;
+        }
+
+        public Object get( Object target ) throws Exception {
+            try {
+                return handle.invokeExact( target );
+            } catch( Exception e ) {
+                throw e;
+            } catch( Error e ) {
+                throw e;
+            } catch( Throwable t ) {
+                throw new JSONException( t );
+            }
+        }
+    }
+
+    private static final class PrimitiveHandleAccessor extends PropertyAccessor {
+        private final MethodHandle boxed;
+        private final MethodHandle primitive;
+        private final Type type;
+
+        PrimitiveHandleAccessor( MethodHandle boxed, MethodHandle handle, Type type ) {
+            this.boxed = boxed;
+            this.type = type;
+            Class<?> returnType = type == Type.INT ? int.class : type == Type.LONG ? long.class : double.class;
+            this.primitive = handle.asType( MethodType.methodType( returnType, Object.class ) );
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public Object get( Object target ) throws Exception {
+            try {
+                return boxed.invokeExact( target );
+            } catch( Exception e ) {
+                throw e;
+            } catch( Error e ) {
+                throw e;
+            } catch( Throwable t ) {
+                throw new JSONException( t );
+            }
+        }
+
+        public int getInt( Object target ) throws Exception {
+            if( type != Type.INT ) {
+                return super.getInt( target );
+            }
+            try {
+                return (int) primitive.invokeExact( target );
+            } catch( Exception e ) {
+                throw e;
+            } catch( Error e ) {
+                throw e;
+            } catch( Throwable t ) {
+                throw new JSONException( t );
+            }
+        }
+
+        public long getLong( Object target ) throws Exception {
+            if( type != Type.LONG ) {
+                return super.getLong( target );
+            }
+            try {
+                return (long) primitive.invokeExact( target );
+            } catch( Exception e ) {
+                throw e;
+            } catch( Error e ) {
+                throw e;
+            } catch( Throwable t ) {
+                throw new JSONException( t );
+            }
+        }
+
+        public double getDouble( Object target ) throws Exception {
+            if( type != Type.DOUBLE && type != Type.FLOAT ) {
+                return super.getDouble( target );
+            }
+            try {
+                return (double) primitive.invokeExact( target );
+            } catch( Exception e ) {
+                throw e;
+            } catch( Error e ) {
+                throw e;
+            } catch( Throwable t ) {
+                throw new JSONException( t );
+            }
+        }
+    }
+
+    private static final class GeneratedPropertyAccessor extends PropertyAccessor {
+        private final GeneratedAccessor accessor;
+        private final int property;
+        private final Type type;
+
+        GeneratedPropertyAccessor( GeneratedAccessor accessor, int property, Type type ) {
+            this.accessor = accessor;
+            this.property = property;
+            this.type = type;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public Object get( Object target ) throws Exception {
+            return accessor.get( target, property );
+        }
+
+        public int getInt( Object target ) throws Exception {
+            return accessor.getInt( target, property );
+        }
+
+        public long getLong( Object target ) throws Exception {
+            return accessor.getLong( target, property );
+        }
+
+        public double getDouble( Object target ) throws Exception {
+            return accessor.getDouble( target, property );
+        }
+    }
+
+    private static final class ReflectionAccessor extends PropertyAccessor {
+        private final Method method;
+
+        ReflectionAccessor( Method method ) {
+            this.method = method;
+        }
+
+        public Object get( Object target ) throws Exception {
+            return method.invoke( target, (Object[]) null );
+        }
+    }
+
+    private static final class FieldAccessor extends PropertyAccessor {
+        private final Field field;
+
+        FieldAccessor( Field field ) {
+            this.field = field;
+        }
+
+        public Object get( Object target ) throws Exception {
+            return field.get( target );
+        }
+    }
+}
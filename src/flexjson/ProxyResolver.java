@@ -0,0 +1,46 @@
+package flexjson;
+
+/**
+ * Recognizes proxy classes, like the lazy loading proxies generated by Hibernate, and tells
+ * {@link flexjson.JSONSerializer} which class a proxy stands in for so the properties of that
+ * class are serialized rather than the ones the proxy adds.  Flexjson comes with resolvers for
+ * Hibernate, javassist, ByteBuddy and CGLIB proxies.  Others can be added with
+ * {@link flexjson.JSONSerializer#proxyResolver(ProxyResolver)}.  Resolvers are called from
+ * many threads at once so implementations must be thread safe.
+ */
+public interface ProxyResolver {
+
+    /**
+     * This is asked once per class, the answer is cached.
+     *
+     * @param type the runtime class of an object about to be serialized.
+     * @return true if instances of type are proxies this resolver knows how to handle.
+     */
+    public boolean isProxy( Class<?> type );
+
+    /**
+     * @param proxy an instance of a class this resolver said is a proxy.
+     * @return the class the proxy stands in for.
+     */
+    public Class<?> getTargetClass( Object proxy );
+
+    /**
+     * Only asked when a {@link flexjson.UninitializedPolicy} other than LOAD is in use.
+     *
+     * @param proxy an instance of a class this resolver said is a proxy.
+     * @return false if the proxy hasn't loaded the object it stands in for yet, so reading
+     * any of its properties would load it.
+     */
+    public default boolean isInitialized( Object proxy ) {
+        return true;
+    }
+
+    /**
+     * @param proxy an instance of a class this resolver said is a proxy.
+     * @return the identifier of the object the proxy stands in for, or null if it isn't known.
+     * It must be available without loading the object.
+     */
+    public default Object getIdentifier( Object proxy ) {
+        return null;
+    }
+}
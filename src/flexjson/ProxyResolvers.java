@@ -0,0 +1,260 @@
+package flexjson;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * Internal class used by {@link flexjson.JSONSerializer} holding the built in
+ * {@link flexjson.ProxyResolver}s.  Which of them, if any, handles a class is worked out the
+ * first time the class is seen and kept in a {@link ClassValue}, so the proxy libraries are
+ * recognized by name without being on the class path and nothing is looked up twice.
+ */
+final class ProxyResolvers {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType( Object.class, Object.class );
+
+    private static final ProxyResolver[] DEFAULTS = { new HibernateProxyResolver(), new SubclassProxyResolver() };
+
+    // stands for "not a proxy" since a ClassValue has to hold something
+    private static final ProxyResolver NONE = new ProxyResolver() {
+        public boolean isProxy( Class<?> type ) {
+            return false;
+        }
+
+        public Class<?> getTargetClass( Object proxy ) {
+            return proxy.getClass();
+        }
+    };
+
+    private static final String[] PERSISTENT_COLLECTIONS = {
+        "org.hibernate.collection.spi.PersistentCollection",
+        "org.hibernate.collection.PersistentCollection"
+    };
+
+    private static final MethodType PREDICATE_TYPE = MethodType.methodType( boolean.class, Object.class );
+
+    // the wasInitialized() method of persistent collection classes, empty for other classes
+    private static final ClassValue<MethodHandle[]> COLLECTION_STATES = new ClassValue<MethodHandle[]>() {
+        protected MethodHandle[] computeValue( Class<?> type ) {
+            for( String name : PERSISTENT_COLLECTIONS ) {
+                Class<?> collection = findInterface( type, name );
+                if( collection != null ) {
+                    try {
+                        Method method = collection.getMethod( "wasInitialized" );
+                        return new MethodHandle[] { MethodHandles.publicLookup().unreflect( method ).asType( PREDICATE_TYPE ) };
+                    } catch( NoSuchMethodException e ) {
+                        // not a collection we know how to ask
+                    } catch( IllegalAccessException e ) {
+                        // not a collection we know how to ask
+                    }
+                }
+            }
+            return new MethodHandle[0];
+        }
+    };
+
+    private static final ClassValue<ProxyResolver> RESOLVERS = new ClassValue<ProxyResolver>() {
+        protected ProxyResolver computeValue( Class<?> type ) {
+            for( ProxyResolver resolver : DEFAULTS ) {
+                if( resolver.isProxy( type ) ) {
+                    return resolver;
+                }
+            }
+            return NONE;
+        }
+    };
+
+    private ProxyResolvers() {
+    }
+
+    /**
+     * @return the built in resolver handling the given class, or null when it isn't a known proxy.
+     */
+    public static ProxyResolver find( Class<?> type ) {
+        ProxyResolver resolver = RESOLVERS.get( type );
+        return resolver == NONE ? null : resolver;
+    }
+
+    /**
+     * @return true if the object is a persistent collection, like Hibernate's, that hasn't been
+     * loaded yet.
+     */
+    public static boolean isUninitializedCollection( Object object ) {
+        MethodHandle[] state = COLLECTION_STATES.get( object.getClass() );
+        if( state.length == 0 ) {
+            return false;
+        }
+        try {
+            return !(boolean) state[0].invokeExact( object );
+        } catch( Throwable e ) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the interface with the given name the type or one of its super types implements, or null.
+     */
+    static Class<?> findInterface( Class<?> type, String name ) {
+        for( Class<?> current = type; current != null; current = current.getSuperclass() ) {
+            for( Class<?> implemented : current.getInterfaces() ) {
+                if( implemented.getName().equals( name ) ) {
+                    return implemented;
+                }
+                Class<?> inherited = findInterface( implemented, name );
+                if( inherited != null ) {
+                    return inherited;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Unwraps Hibernate proxies by asking their lazy initializer for the persistent class, whether
+     * it has been loaded and its identifier.  The methods involved are bound to method handles
+     * once per Hibernate class loader.
+     */
+    static final class HibernateProxyResolver implements ProxyResolver {
+
+        static final String HIBERNATE_PROXY = "org.hibernate.proxy.HibernateProxy";
+
+        private final ClassValue<MethodHandle[]> handles = new ClassValue<MethodHandle[]>() {
+            protected MethodHandle[] computeValue( Class<?> proxyInterface ) {
+                try {
+                    Method initializer = proxyInterface.getMethod( "getHibernateLazyInitializer" );
+                    Class<?> lazyInitializer = initializer.getReturnType();
+                    MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                    return new MethodHandle[] {
+                        lookup.unreflect( initializer ).asType( GETTER_TYPE ),
+                        lookup.unreflect( lazyInitializer.getMethod( "getPersistentClass" ) ).asType( GETTER_TYPE ),
+                        lookup.unreflect( lazyInitializer.getMethod( "isUninitialized" ) ).asType( PREDICATE_TYPE ),
+                        lookup.unreflect( lazyInitializer.getMethod( "getIdentifier" ) ).asType( GETTER_TYPE )
+                    };
+                } catch( NoSuchMethodException e ) {
+                    return null;
+                } catch( IllegalAccessException e ) {
+                    return null;
+                }
+            }
+        };
+
+        public boolean isProxy( Class<?> type ) {
+            return findInterface( type, HIBERNATE_PROXY ) != null;
+        }
+
+        public Class<?> getTargetClass( Object proxy ) {
+            MethodHandle[] unwrap = handlesFor( proxy.getClass() );
+            if( unwrap != null ) {
+                try {
+                    Object initializer = unwrap[0].invokeExact( proxy );
+                    return (Class<?>) (Object) unwrap[1].invokeExact( initializer );
+                } catch( Throwable e ) {
+                    // fall back to the proxy class just as if it wasn't recognized
+                }
+            }
+            return proxy.getClass();
+        }
+
+        public boolean isInitialized( Object proxy ) {
+            MethodHandle[] unwrap = handlesFor( proxy.getClass() );
+            if( unwrap != null ) {
+                try {
+                    Object initializer = unwrap[0].invokeExact( proxy );
+                    return !(boolean) unwrap[2].invokeExact( initializer );
+                } catch( Throwable e ) {
+                    // treat it as loaded, reading it will tell
+                }
+            }
+            return true;
+        }
+
+        public Object getIdentifier( Object proxy ) {
+            MethodHandle[] unwrap = handlesFor( proxy.getClass() );
+            if( unwrap != null ) {
+                try {
+                    Object initializer = unwrap[0].invokeExact( proxy );
+                    return unwrap[3].invokeExact( initializer );
+                } catch( Throwable e ) {
+                    // no identifier then
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the handles reading the lazy initializer of a proxy, and the persistent class,
+         * uninitialized flag and identifier of a lazy initializer, or null if they couldn't be bound.
+         */
+        MethodHandle[] handlesFor( Class<?> proxyClass ) {
+            Class<?> proxyInterface = findInterface( proxyClass, HIBERNATE_PROXY );
+            return proxyInterface != null ? handles.get( proxyInterface ) : null;
+        }
+    }
+
+    /**
+     * Recognizes the proxies javassist, ByteBuddy and CGLIB generate by subclassing, from the
+     * marker interfaces they implement or the names they give their classes, and resolves them
+     * to the first super class that isn't a proxy, or the first interface they implement when
+     * they only proxy interfaces.
+     */
+    static final class SubclassProxyResolver implements ProxyResolver {
+
+        private static final String[] MARKER_INTERFACES = {
+            "javassist.util.proxy.ProxyObject",
+            "javassist.util.proxy.Proxy",
+            "net.sf.cglib.proxy.Factory",
+            "org.springframework.cglib.proxy.Factory"
+        };
+
+        private static final String[] NAME_MARKERS = {
+            "$$EnhancerByCGLIB$$",
+            "$$EnhancerBySpringCGLIB$$",
+            "$ByteBuddy$",
+            "$HibernateProxy$",
+            "_$$_javassist_",
+            "_$$_jvst"
+        };
+
+        public boolean isProxy( Class<?> type ) {
+            for( String marker : MARKER_INTERFACES ) {
+                if( findInterface( type, marker ) != null ) {
+                    return true;
+                }
+            }
+            String name = type.getName();
+            for( String marker : NAME_MARKERS ) {
+                if( name.contains( marker ) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public Class<?> getTargetClass( Object proxy ) {
+            Class<?> type = proxy.getClass();
+            while( type.getSuperclass() != null && type.getSuperclass() != Object.class && isProxy( type ) ) {
+                type = type.getSuperclass();
+            }
+            if( !isProxy( type ) ) {
+                return type;
+            }
+            for( Class<?> implemented : type.getInterfaces() ) {
+                if( !isMarker( implemented ) ) {
+                    return implemented;
+                }
+            }
+            return type;
+        }
+
+        private boolean isMarker( Class<?> type ) {
+            for( String marker : MARKER_INTERFACES ) {
+                if( type.getName().equals( marker ) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
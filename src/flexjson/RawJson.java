@@ -0,0 +1,354 @@
+package flexjson;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A fragment of JSON that's already serialized, like a document read from a cache or a store,
+ * which {@link flexjson.JSONSerializer} copies into the output as it is instead of writing it
+ * as a quoted string.  It can be the object serialized or any value inside it, and holds either
+ * text or the UTF-8 bytes of the text, which are decoded a chunk at a time as they're written.
+ * Nothing is checked unless {@link #validate()} is called, so a fragment that isn't a single
+ * well formed JSON value makes the whole output invalid.  Pretty printing doesn't reformat the
+ * fragment, while htmlSafe mode does escape the HTML characters in its strings.  An empty
+ * fragment is left out just like a null when it's the value of an attribute, and written as
+ * null anywhere else, so arrays keep their length and the output stays valid.
+ */
+public final class RawJson {
+
+    private static final int CHUNK = 1024;
+
+    private final CharSequence text;
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+
+    private RawJson( CharSequence text, byte[] bytes, int offset, int length ) {
+        this.text = text;
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @param json the JSON text, which is read when it's written rather than copied.
+     */
+    public static RawJson of( CharSequence json ) {
+        return new RawJson( json, null, 0, json.length() );
+    }
+
+    /**
+     * @param utf8 the JSON encoded as UTF-8, which is read when it's written rather than copied.
+     */
+    public static RawJson of( byte[] utf8 ) {
+        return of( utf8, 0, utf8.length );
+    }
+
+    /**
+     * @param utf8 the array holding the JSON encoded as UTF-8.
+     * @param offset the index of its first byte.
+     * @param length the number of bytes.
+     */
+    public static RawJson of( byte[] utf8, int offset, int length ) {
+        if( offset < 0 || length < 0 || offset + length > utf8.length ) {
+            throw new IndexOutOfBoundsException( "offset " + offset + ", length " + length + " for " + utf8.length + " bytes" );
+        }
+        return new RawJson( null, utf8, offset, length );
+    }
+
+    /**
+     * Takes the bytes from the position of the buffer up to its limit.  The position of the
+     * buffer isn't moved, and moving it afterwards doesn't change the fragment.  The bytes of
+     * a buffer backed by an array are read from the array when the fragment is written, those
+     * of any other buffer are copied now.
+     *
+     * @param utf8 the JSON encoded as UTF-8.
+     */
+    public static RawJson of( ByteBuffer utf8 ) {
+        if( utf8.hasArray() ) {
+            return of( utf8.array(), utf8.arrayOffset() + utf8.position(), utf8.remaining() );
+        }
+        byte[] copy = new byte[ utf8.remaining() ];
+        utf8.duplicate().get( copy );
+        return of( copy );
+    }
+
+    /**
+     * Checks the fragment is a single JSON value as RFC 8259 defines it, with nothing but
+     * whitespace around it.  This reads the whole fragment, so it's worth doing once when the
+     * fragment enters the application rather than every time it's written.
+     *
+     * @return this instance for method chaining.
+     * @throws JSONException naming the position of the first error when it isn't.
+     */
+    public RawJson validate() throws JSONException {
+        new Validator().value();
+        return this;
+    }
+
+    /**
+     * @return true if the fragment has no characters at all.
+     */
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * Copies the fragment to the output, decoding it first when it's held as bytes.
+     */
+    void write( OutputHandler out ) {
+        if( text instanceof String ) {
+            out.write( (String) text );
+        } else if( text != null ) {
+            char[] chunk = new char[ Math.min( length, CHUNK ) ];
+            for( int start = 0; start < length; start += chunk.length ) {
+                int end = Math.min( length, start + chunk.length );
+                for( int i = start; i < end; i++ ) {
+                    chunk[ i - start ] = text.charAt( i );
+                }
+                out.write( chunk, 0, end - start );
+            }
+        } else {
+            CharsetDecoder decoder = decoder();
+            ByteBuffer in = ByteBuffer.wrap( bytes, offset, length );
+            CharBuffer chunk = CharBuffer.allocate( Math.min( length, CHUNK ) );
+            boolean flushed = false;
+            while( !flushed ) {
+                CoderResult result = in.hasRemaining() ? decoder.decode( in, chunk, true ) : decoder.flush( chunk );
+                if( result.isError() ) {
+                    throw new JSONException( "Raw JSON isn't UTF-8, byte " + in.position() + " can't be decoded" );
+                }
+                flushed = !in.hasRemaining() && result.isUnderflow();
+                chunk.flip();
+                out.write( chunk.array(), 0, chunk.limit() );
+                chunk.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the JSON text of the fragment.
+     */
+    public String toString() {
+        if( text != null ) {
+            return text.toString();
+        }
+        try {
+            return decoder().decode( ByteBuffer.wrap( bytes, offset, length ) ).toString();
+        } catch( CharacterCodingException e ) {
+            throw new JSONException( "Raw JSON isn't UTF-8", e );
+        }
+    }
+
+    private static CharsetDecoder decoder() {
+        return StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput( CodingErrorAction.REPORT )
+                .onUnmappableCharacter( CodingErrorAction.REPORT );
+    }
+
+    /**
+     * Reads through the fragment without building anything.  Containers are tracked on a
+     * stack of their own rather than by recursion, so deeply nested fragments can't overflow
+     * the call stack.  Bytes aren't decoded, as everything but the contents of strings is
+     * ASCII, and characters from 0x80 up are only accepted inside strings.
+     */
+    private final class Validator {
+        private int position = 0;
+        // where the last character was read from, for errors
+        private int last = 0;
+        // true for an object, false for an array
+        private boolean[] containers = new boolean[ 16 ];
+        private int depth = 0;
+
+        void value() {
+            while( true ) {
+                whitespace();
+                int c = next();
+                if( c == '{' ) {
+                    whitespace();
+                    if( peek() == '}' ) {
+                        position++;
+                    } else {
+                        push( true );
+                        key();
+                        continue;
+                    }
+                } else if( c == '[' ) {
+                    whitespace();
+                    if( peek() == ']' ) {
+                        position++;
+                    } else {
+                        push( false );
+                        continue;
+                    }
+                } else if( c == '\"' ) {
+                    string();
+                } else if( c == '-' || ( c >= '0' && c <= '9' ) ) {
+                    number( c );
+                } else if( c == 't' ) {
+                    literal( "rue" );
+                } else if( c == 'f' ) {
+                    literal( "alse" );
+                } else if( c == 'n' ) {
+                    literal( "ull" );
+                } else {
+                    throw error( "a value" );
+                }
+                if( !more() ) {
+                    break;
+                }
+            }
+            whitespace();
+            if( next() >= 0 ) {
+                throw error( "the end" );
+            }
+        }
+
+        /**
+         * Moves past the containers ending after a value.
+         *
+         * @return true if another value follows, false if the outermost value has ended.
+         */
+        private boolean more() {
+            while( depth > 0 ) {
+                whitespace();
+                int c = next();
+                boolean object = containers[ depth - 1 ];
+                if( c == ',' ) {
+                    if( object ) {
+                        whitespace();
+                        key();
+                    }
+                    return true;
+                } else if( c == ( object ? '}' : ']' ) ) {
+                    depth--;
+                } else {
+                    throw error( object ? "',' or '}'" : "',' or ']'" );
+                }
+            }
+            return false;
+        }
+
+        private void key() {
+            if( next() != '\"' ) {
+                throw error( "a key" );
+            }
+            string();
+            whitespace();
+            if( next() != ':' ) {
+                throw error( "':'" );
+            }
+        }
+
+        private void push( boolean object ) {
+            if( depth == containers.length ) {
+                boolean[] grown = new boolean[ depth * 2 ];
+                System.arraycopy( containers, 0, grown, 0, depth );
+                containers = grown;
+            }
+            containers[ depth++ ] = object;
+        }
+
+        private void string() {
+            while( true ) {
+                int c = next();
+                if( c == '\"' ) {
+                    return;
+                } else if( c == '\\' ) {
+                    c = next();
+                    if( c == 'u' ) {
+                        for( int i = 0; i < 4; i++ ) {
+                            if( Character.digit( next(), 16 ) < 0 ) {
+                                throw error( "a hex digit" );
+                            }
+                        }
+                    } else if( c != '\"' && c != '\\' && c != '/' && c != 'b' && c != 'f' && c != 'n' && c != 'r' && c != 't' ) {
+                        throw error( "an escape" );
+                    }
+                } else if( c < 0x20 ) {
+                    throw error( c < 0 ? "the end of the string" : "an escaped control character" );
+                }
+            }
+        }
+
+        private void number( int first ) {
+            int c = first == '-' ? next() : first;
+            if( c == '0' ) {
+                // no leading zeros
+            } else if( c >= '1' && c <= '9' ) {
+                digits();
+            } else {
+                throw error( "a digit" );
+            }
+            if( peek() == '.' ) {
+                position++;
+                atLeastOneDigit();
+            }
+            if( peek() == 'e' || peek() == 'E' ) {
+                position++;
+                if( peek() == '+' || peek() == '-' ) {
+                    position++;
+                }
+                atLeastOneDigit();
+            }
+        }
+
+        private void atLeastOneDigit() {
+            int c = next();
+            if( c < '0' || c > '9' ) {
+                throw error( "a digit" );
+            }
+            digits();
+        }
+
+        private void digits() {
+            while( peek() >= '0' && peek() <= '9' ) {
+                position++;
+            }
+        }
+
+        private void literal( String rest ) {
+            for( int i = 0; i < rest.length(); i++ ) {
+                if( next() != rest.charAt( i ) ) {
+                    throw error( "true, false or null" );
+                }
+            }
+        }
+
+        private void whitespace() {
+            int c = peek();
+            while( c == ' ' || c == '\t' || c == '\n' || c == '\r' ) {
+                position++;
+                c = peek();
+            }
+        }
+
+        /**
+         * @return the character or byte at the position, or -1 at the end.
+         */
+        private int peek() {
+            if( position >= length ) {
+                return -1;
+            }
+            return text != null ? text.charAt( position ) : bytes[ offset + position ] & 0xFF;
+        }
+
+        private int next() {
+            int c = peek();
+            last = position;
+            if( c >= 0 ) {
+                position++;
+            }
+            return c;
+        }
+
+        private JSONException error( String expected ) {
+            return new JSONException( "Invalid raw JSON at position " + last + ", expected " + expected );
+        }
+    }
+}
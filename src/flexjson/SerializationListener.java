@@ -0,0 +1,16 @@
+package flexjson;
+
+/**
+ * Receives the {@link flexjson.SerializationStats} of every serialization completed by a
+ * {@link flexjson.JSONSerializer} it was registered with, for logging or exporting metrics.
+ * It's called on the thread that serialized, so it should return quickly.  Serializations
+ * that fail with an exception aren't reported.
+ */
+public interface SerializationListener {
+
+    /**
+     * @param target the object that was serialized.
+     * @param stats what the serialization wrote and how long it took.
+     */
+    public void serialized( Object target, SerializationStats stats );
+}
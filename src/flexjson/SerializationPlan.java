@@ -0,0 +1,259 @@
+package flexjson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Internal class used by {@link flexjson.JSONSerializer} to cache everything it learns about
+ * a class the first time it serializes an instance of it.  A plan holds the bean properties
+ * in introspection order, the public fields of the class hierarchy, the quoted key names and
+ * the include decision each property gets when no include/exclude expression matches it.
+ * Plans are built per class and per visitor mode against one compiled configuration, and are
+ * thrown away with it whenever the include or exclude configuration of the serializer changes.
+ * A class whose output has the same shape wherever it's written at a given path also gets a
+ * {@link Template}.
+ */
+final class SerializationPlan {
+
+    private final Class<?> beanClass;
+    private final Property[] properties;
+    private final Property[] fields;
+    private final ProxyResolver proxyResolver;
+    private final boolean templated;
+    private final boolean pathSensitive;
+    private final Template template;
+    // templates by the state of the path a bean is at, when the properties included depend on it
+    private final Map<PathMatcher.State,Template> templates = new ConcurrentHashMap<PathMatcher.State,Template>();
+
+    SerializationPlan( Class<?> beanClass, List<Property> properties, List<Property> fields, ProxyResolver proxyResolver ) {
+        this.beanClass = beanClass;
+        this.properties = properties.toArray( new Property[ properties.size() ] );
+        this.fields = fields.toArray( new Property[ fields.size() ] );
+        this.proxyResolver = proxyResolver;
+        this.templated = proxyResolver == null && canTemplate( this.properties, this.fields );
+        this.pathSensitive = isPathSensitive( this.properties );
+        this.template = templated && !pathSensitive ? Template.of( this.properties, this.fields, null ) : null;
+    }
+
+    private static boolean canTemplate( Property[] properties, Property[] fields ) {
+        for( Property property : properties ) {
+            if( !property.isScalar() && ( property.isPathSensitive() || property.isIncludedByDefault() ) ) {
+                return false;
+            }
+        }
+        for( Property field : fields ) {
+            if( !field.isScalar() ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isPathSensitive( Property[] properties ) {
+        for( Property property : properties ) {
+            if( property.isPathSensitive() ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Class<?> getBeanClass() {
+        return beanClass;
+    }
+
+    public Property[] getProperties() {
+        return properties;
+    }
+
+    public Property[] getFields() {
+        return fields;
+    }
+
+    /**
+     * @return the resolver that recognized the planned class as a proxy, or null when it isn't one.
+     */
+    public ProxyResolver getProxyResolver() {
+        return proxyResolver;
+    }
+
+    /**
+     * @param state the state of the path of the bean, the one its properties are matched from.
+     * @return the template for beans of the planned class at that path, or null when the
+     * properties written there aren't all scalars, or the class is a proxy.
+     */
+    public Template getTemplate( PathMatcher.State state ) {
+        if( !templated || !pathSensitive ) {
+            return template;
+        }
+        Template found = templates.get( state );
+        if( found == null ) {
+            found = Template.of( properties, fields, state );
+            templates.put( state, found );
+        }
+        return found != Template.NONE ? found : null;
+    }
+
+    /**
+     * @return true if a value of the given declared type is always written as a single number,
+     * string or literal: a primitive, its box, a String, a Class or an enum.
+     */
+    static boolean isScalar( Class<?> type ) {
+        return type.isPrimitive() || type == String.class || type == Integer.class || type == Long.class
+                || type == Double.class || type == Float.class || type == Short.class || type == Byte.class
+                || type == Boolean.class || type == Character.class || type == Class.class || type.isEnum();
+    }
+
+    /**
+     * The fixed shape of a class at a path where the properties included are all scalars, so
+     * the properties written there are always the same ones, in the same order, each holding a
+     * single value.  The literal text in front of each value, the brace or comma and the quoted
+     * key with its colon, is worked out once here so writing a bean takes one write per property
+     * plus its value.  A property that's null is still left out, so each one has the text for
+     * being the first property written and for following another.
+     */
+    static final class Template {
+        // stands for no template at a path in the map of templates, which can't hold nulls
+        private static final Template NONE = new Template( new ArrayList<Property>() );
+
+        private final Property[] slots;
+        private final String[] openings;
+        private final String[] separators;
+
+        private Template( List<Property> slots ) {
+            this.slots = slots.toArray( new Property[ slots.size() ] );
+            this.openings = new String[ this.slots.length ];
+            this.separators = new String[ this.slots.length ];
+            for( int i = 0; i < this.slots.length; i++ ) {
+                openings[i] = "{" + this.slots[i].getKey();
+                separators[i] = "," + this.slots[i].getKey();
+            }
+        }
+
+        /**
+         * Works out the properties included at the given path, as JSONSerializer decides it: the
+         * first expression matching the path of the property, or its default when none does.
+         *
+         * @param state the state of the path of the bean, null if no property depends on it.
+         * @return the template, or {@link #NONE} if a property that isn't a scalar is included.
+         */
+        static Template of( Property[] properties, Property[] fields, PathMatcher.State state ) {
+            List<Property> slots = new ArrayList<Property>();
+            for( Property property : properties ) {
+                boolean included = property.isIncludedByDefault();
+                if( property.isPathSensitive() ) {
+                    PathExpression expression = state.next( property.getSymbol() ).getMatch();
+                    if( expression != null ) {
+                        included = expression.isIncluded();
+                    }
+                }
+                if( included ) {
+                    if( !property.isScalar() ) {
+                        return NONE;
+                    }
+                    slots.add( property );
+                }
+            }
+            // fields are always included
+            for( Property field : fields ) {
+                if( !field.isScalar() ) {
+                    return NONE;
+                }
+                slots.add( field );
+            }
+            return new Template( slots );
+        }
+
+        /**
+         * @return the properties written, in order.
+         */
+        public Property[] getSlots() {
+            return slots;
+        }
+
+        /**
+         * @return the opening brace and key of the slot, for when it's the first one written.
+         */
+        public String getOpening( int slot ) {
+            return openings[ slot ];
+        }
+
+        /**
+         * @return the comma and key of the slot, for when another one was written before it.
+         */
+        public String getSeparator( int slot ) {
+            return separators[ slot ];
+        }
+    }
+
+    /**
+     * A single bean property or public field of a planned class.
+     */
+    static final class Property {
+        private final String name;
+        private final String key;
+        private final int symbol;
+        private final PropertyAccessor accessor;
+        private final boolean includedByDefault;
+        private final boolean pathSensitive;
+        private final boolean scalar;
+
+        Property( String name, int symbol, PropertyAccessor accessor, boolean includedByDefault, boolean pathSensitive, boolean scalar ) {
+            this.name = name;
+            this.key = "\"" + name + "\":";
+            this.symbol = symbol;
+            this.accessor = accessor;
+            this.includedByDefault = includedByDefault;
+            this.pathSensitive = pathSensitive;
+            this.scalar = scalar;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the name of this property already quoted and followed by a colon.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the input symbol of this property's name for the {@link PathMatcher} the plan was built with.
+         */
+        public int getSymbol() {
+            return symbol;
+        }
+
+        public PropertyAccessor getAccessor() {
+            return accessor;
+        }
+
+        /**
+         * @return the decision taken from the {@link JSON} annotation or the property type when
+         * no path expression matches this property.
+         */
+        public boolean isIncludedByDefault() {
+            return includedByDefault;
+        }
+
+        /**
+         * @return false when no configured path expression could ever match this property, in
+         * which case {@link #isIncludedByDefault()} is the final decision.
+         */
+        public boolean isPathSensitive() {
+            return pathSensitive;
+        }
+
+        /**
+         * @return true if the declared type of this property is one {@link SerializationPlan#isScalar(Class)}
+         * accepts.
+         */
+        public boolean isScalar() {
+            return scalar;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package flexjson;
+
+/**
+ * Counters describing a single serialization.  Pass a fresh instance to one of the serialize
+ * methods of {@link flexjson.JSONSerializer} that take one and read it once the call returns,
+ * or have a {@link flexjson.SerializationListener} handed one after every serialization.
+ * Nothing is measured when neither is used.  An instance isn't meant to be shared by
+ * serializations running at the same time.
+ */
+public class SerializationStats {
+
+    private long length = 0;
+    private long beans = 0;
+    private long collections = 0;
+    private long maps = 0;
+    private int maxDepth = 0;
+    private long time = 0;
+    private long getterTime = 0;
+    private long avoidedLoads = 0;
+
+    /**
+     * @return the amount of output written, in bytes when serializing to an OutputStream and in
+     * characters otherwise.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return the number of beans written, not counting beans left out as part of a cycle.
+     */
+    public long getBeans() {
+        return beans;
+    }
+
+    /**
+     * @return the number of arrays, collections, iterators and streams written.
+     */
+    public long getCollections() {
+        return collections;
+    }
+
+    public long getMaps() {
+        return maps;
+    }
+
+    /**
+     * @return how deep objects and arrays were nested in the output, 1 for a flat object.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return the time the serialization took in nanoseconds.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return the time spent inside getters in nanoseconds, or 0 unless getters were timed, see
+     * {@link flexjson.JSONSerializer#timeGetters(boolean)}.  Getters called by chunks serialized
+     * in parallel add up, so this can exceed {@link #getTime()}.
+     */
+    public long getGetterTime() {
+        return getterTime;
+    }
+
+    /**
+     * @return the number of unloaded proxies and collections that were skipped or written as
+     * their identifier instead of being loaded.  See {@link flexjson.UninitializedPolicy}.
+     */
+    public long getAvoidedLoads() {
+        return avoidedLoads;
+    }
+
+    void bean() {
+        beans++;
+    }
+
+    void collection() {
+        collections++;
+    }
+
+    void map() {
+        maps++;
+    }
+
+    void depth( int depth ) {
+        if( depth > maxDepth ) {
+            maxDepth = depth;
+        }
+    }
+
+    void getterTime( long nanos ) {
+        getterTime += nanos;
+    }
+
+    void avoidedLoad() {
+        avoidedLoads++;
+    }
+
+    void completed( long length, long time ) {
+        this.length += length;
+        this.time += time;
+    }
+
+    /**
+     * Adds the counts of another part of the same serialization, like a chunk serialized in
+     * parallel, to this one.  Length and time are those of the whole serialization so they're
+     * left alone.
+     */
+    void add( SerializationStats other ) {
+        beans += other.beans;
+        collections += other.collections;
+        maps += other.maps;
+        depth( other.maxDepth );
+        getterTime += other.getterTime;
+        avoidedLoads += other.avoidedLoads;
+    }
+
+    public String toString() {
+        return "SerializationStats[length=" + length + ", beans=" + beans + ", collections=" + collections + ", maps=" + maps
+                + ", maxDepth=" + maxDepth + ", time=" + time + "ns, getterTime=" + getterTime + "ns, avoidedLoads=" + avoidedLoads + "]";
+    }
+}
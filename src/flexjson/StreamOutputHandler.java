@@ -0,0 +1,176 @@
+package flexjson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Streams the serialized output to an {@link OutputStream} encoded as UTF-8.  Characters are
+ * encoded straight into a pooled byte chunk which is written to the stream each time it fills
+ * up, so there's no intermediate String or Writer and runs of ASCII, which is what keys, numbers
+ * and most values are made of, are copied a byte per char without going through an encoder.
+ * Characters that can't be encoded, like unpaired surrogates, are written as '?' just as
+ * {@link java.io.OutputStreamWriter} does.  Given a {@link flexjson.ContentHash} the handler
+ * hashes each chunk as it goes to the stream.  The stream itself is neither flushed nor closed.
+ */
+public class StreamOutputHandler implements OutputHandler {
+
+    private OutputStream stream;
+    private ContentHash hash;
+    private byte[] buffer;
+    private int position = 0;
+    private long drained = 0;
+    private char highSurrogate = 0;
+
+    public StreamOutputHandler( OutputStream stream ) {
+        this.stream = stream;
+    }
+
+    /**
+     * @param hash the hash to add every byte written to the stream to, may be null.
+     */
+    public StreamOutputHandler( OutputStream stream, ContentHash hash ) {
+        this.stream = stream;
+        this.hash = hash;
+    }
+
+    public OutputHandler write( char c ) {
+        if( c < 0x80 && highSurrogate == 0 ) {
+            ensure( 1 );
+            buffer[ position++ ] = (byte) c;
+        } else {
+            encode( c );
+        }
+        return this;
+    }
+
+    public OutputHandler write( String text ) {
+        return write( text, 0, text.length() );
+    }
+
+    public OutputHandler write( String text, int start, int end ) {
+        int i = start;
+        while( i < end ) {
+            if( highSurrogate == 0 ) {
+                ensure( 1 );
+                int limit = Math.min( end, i + buffer.length - position );
+                while( i < limit ) {
+                    char c = text.charAt( i );
+                    if( c >= 0x80 ) break;
+                    buffer[ position++ ] = (byte) c;
+                    i++;
+                }
+                if( i == end || i == limit ) continue;
+            }
+            encode( text.charAt( i++ ) );
+        }
+        return this;
+    }
+
+    public OutputHandler write( char[] chars, int start, int end ) {
+        int i = start;
+        while( i < end ) {
+            if( highSurrogate == 0 ) {
+                ensure( 1 );
+                int limit = Math.min( end, i + buffer.length - position );
+                while( i < limit ) {
+                    char c = chars[i];
+                    if( c >= 0x80 ) break;
+                    buffer[ position++ ] = (byte) c;
+                    i++;
+                }
+                if( i == end || i == limit ) continue;
+            }
+            encode( chars[ i++ ] );
+        }
+        return this;
+    }
+
+    public void flush() {
+        if( highSurrogate != 0 ) {
+            highSurrogate = 0;
+            ensure( 1 );
+            buffer[ position++ ] = '?';
+        }
+        if( buffer != null ) {
+            drain();
+            BufferPool.releaseChunk( buffer );
+            buffer = null;
+        }
+    }
+
+    /**
+     * Unlike {@link #flush()} this keeps the chunk and doesn't end a pending surrogate pair,
+     * so writing can carry on afterwards.
+     */
+    public void flushDestination() {
+        drain();
+        try {
+            stream.flush();
+        } catch( IOException e ) {
+            throw new JSONException( "Could not flush serialized output", e );
+        }
+    }
+
+    public long getLength() {
+        return drained + position;
+    }
+
+    private void encode( char c ) {
+        if( highSurrogate != 0 ) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if( Character.isLowSurrogate( c ) ) {
+                int codePoint = Character.toCodePoint( high, c );
+                ensure( 4 );
+                buffer[ position++ ] = (byte) ( 0xF0 | ( codePoint >> 18 ) );
+                buffer[ position++ ] = (byte) ( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+                buffer[ position++ ] = (byte) ( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+                buffer[ position++ ] = (byte) ( 0x80 | ( codePoint & 0x3F ) );
+                return;
+            }
+            ensure( 1 );
+            buffer[ position++ ] = '?';
+        }
+        if( c < 0x80 ) {
+            ensure( 1 );
+            buffer[ position++ ] = (byte) c;
+        } else if( c < 0x800 ) {
+            ensure( 2 );
+            buffer[ position++ ] = (byte) ( 0xC0 | ( c >> 6 ) );
+            buffer[ position++ ] = (byte) ( 0x80 | ( c & 0x3F ) );
+        } else if( Character.isHighSurrogate( c ) ) {
+            highSurrogate = c;
+        } else if( Character.isLowSurrogate( c ) ) {
+            ensure( 1 );
+            buffer[ position++ ] = '?';
+        } else {
+            ensure( 3 );
+            buffer[ position++ ] = (byte) ( 0xE0 | ( c >> 12 ) );
+            buffer[ position++ ] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+            buffer[ position++ ] = (byte) ( 0x80 | ( c & 0x3F ) );
+        }
+    }
+
+    private void ensure( int length ) {
+        if( buffer == null ) {
+            buffer = BufferPool.takeChunk();
+        } else if( buffer.length - position < length ) {
+            drain();
+        }
+    }
+
+    private void drain() {
+        if( position > 0 ) {
+            if( hash != null ) {
+                hash.update( buffer, 0, position );
+            }
+            try {
+                stream.write( buffer, 0, position );
+            } catch( IOException e ) {
+                throw new JSONException( "Could not write serialized output", e );
+            }
+            drained += position;
+            position = 0;
+        }
+    }
+}
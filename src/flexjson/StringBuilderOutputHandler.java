@@ -0,0 +1,52 @@
+package flexjson;
+
+/**
+ * Collects the serialized output in memory.  This is what backs the serialize methods
+ * of {@link flexjson.JSONSerializer} that return a String.
+ */
+public class StringBuilderOutputHandler implements OutputHandler {
+
+    private StringBuilder builder;
+
+    public StringBuilderOutputHandler() {
+        this( new StringBuilder() );
+    }
+
+    public StringBuilderOutputHandler( StringBuilder builder ) {
+        this.builder = builder;
+    }
+
+    public OutputHandler write( char c ) {
+        builder.append( c );
+        return this;
+    }
+
+    public OutputHandler write( String text ) {
+        builder.append( text );
+        return this;
+    }
+
+    public OutputHandler write( String text, int start, int end ) {
+        builder.append( text, start, end );
+        return this;
+    }
+
+    public OutputHandler write( char[] chars, int start, int end ) {
+        builder.append( chars, start, end - start );
+        return this;
+    }
+
+    public void flush() {
+    }
+
+    public void flushDestination() {
+    }
+
+    public long getLength() {
+        return builder.length();
+    }
+
+    public String toString() {
+        return builder.toString();
+    }
+}
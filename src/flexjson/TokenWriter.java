@@ -0,0 +1,94 @@
+package flexjson;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the document {@link flexjson.JSONSerializer} produces, one token at a time, in the
+ * format of the implementation.  The serializer walks the object graph and decides what's
+ * written, the writer decides how: {@link flexjson.JSONTokenWriter} writes JSON text, quoting,
+ * escaping and separating the tokens, while {@link flexjson.CBORTokenWriter} writes each one as
+ * a binary data item.  Tokens come in document order: every value in an object follows a
+ * {@link #key(String)}, and every begin is matched by an end.  Failures writing to the
+ * underlying destination are reported as {@link flexjson.JSONException}.
+ */
+public interface TokenWriter {
+
+    public void beginObject();
+
+    public void endObject();
+
+    public void beginArray();
+
+    public void endArray();
+
+    /**
+     * Writes the name of the attribute whose value comes next.
+     */
+    public void key( String name );
+
+    public void string( String value );
+
+    /**
+     * Writes the characters of the array from start (inclusive) to end (exclusive) as a string.
+     */
+    public void string( char[] chars, int start, int end );
+
+    public void number( long value );
+
+    public void number( double value );
+
+    public void number( float value );
+
+    /**
+     * Writes a number that isn't one of the primitive types, like a BigDecimal or a BigInteger,
+     * without losing any of its digits.
+     */
+    public void number( Number value );
+
+    public void bool( boolean value );
+
+    public void nul();
+
+    /**
+     * Writes the bytes of the array from offset up to offset + length as binary data.
+     */
+    public void bytes( byte[] bytes, int offset, int length );
+
+    /**
+     * Writes the bytes of the buffer from its position up to its limit as binary data, without
+     * moving either.
+     */
+    public void bytes( ByteBuffer bytes );
+
+    /**
+     * Writes a fragment of JSON that's already serialized as the value it holds.
+     */
+    public void raw( RawJson json );
+
+    /**
+     * @return a writer of the same format and options that keeps what's written to it in
+     * memory, positioned inside an array after at least one element, so the elements of the
+     * array it's given can be serialized on another thread and handed to {@link #append}.
+     */
+    public TokenWriter newBuffer();
+
+    /**
+     * Writes out the elements held by a writer made by {@link #newBuffer()} of this one, as if
+     * they had been written to this writer.
+     */
+    public void append( TokenWriter buffer );
+
+    public void flush();
+
+    /**
+     * Passes everything on like {@link #flush()}, then flushes the destination itself so the
+     * output written so far reaches whoever is at the other end of it.
+     */
+    public void flushDestination();
+
+    /**
+     * @return how much output has been written so far, counted in the unit of the destination,
+     * chars or bytes.
+     */
+    public long getLength();
+}
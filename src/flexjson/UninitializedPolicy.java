@@ -0,0 +1,28 @@
+package flexjson;
+
+/**
+ * What {@link flexjson.JSONSerializer} does with proxies and persistent collections, like the
+ * ones Hibernate hands out for lazy associations, that haven't been loaded yet.  Reading them
+ * means a trip to the database for each one, so deep serializing an object graph full of them
+ * can take hundreds of queries.  Skipped and identifier only values are counted in
+ * {@link flexjson.SerializationStats#getAvoidedLoads()}.
+ */
+public enum UninitializedPolicy {
+
+    /**
+     * Serialize them like any other object, loading them on the way.  This is the default.
+     */
+    LOAD,
+
+    /**
+     * Write only the identifier of an unloaded proxy in place of the object.  Unloaded
+     * collections, and proxies whose identifier isn't known, are treated as with SKIP.
+     */
+    IDENTIFIER,
+
+    /**
+     * Leave unloaded properties and map entries out.  Unloaded elements of arrays and
+     * collections, and an unloaded object passed to serialize, are written as null.
+     */
+    SKIP
+}
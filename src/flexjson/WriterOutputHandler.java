@@ -0,0 +1,126 @@
+package flexjson;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams the serialized output to a {@link Writer}.  Characters are gathered in a fixed size
+ * buffer and handed to the writer each time it fills up, so memory use stays bounded no matter
+ * how large the document grows and the writer starts receiving output while the object graph
+ * is still being walked.  The buffer is borrowed from a per thread pool and given back by
+ * {@link #flush()}.  The writer itself is neither flushed nor closed.
+ */
+public class WriterOutputHandler implements OutputHandler {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private Writer writer;
+    private char[] buffer;
+    private final int bufferSize;
+    private int position = 0;
+    private long drained = 0;
+
+    public WriterOutputHandler( Writer writer ) {
+        this( writer, DEFAULT_BUFFER_SIZE );
+    }
+
+    public WriterOutputHandler( Writer writer, int bufferSize ) {
+        this.writer = writer;
+        this.bufferSize = bufferSize;
+    }
+
+    public OutputHandler write( char c ) {
+        if( buffer == null || position == bufferSize ) {
+            ensure();
+        }
+        buffer[ position++ ] = c;
+        return this;
+    }
+
+    public OutputHandler write( String text ) {
+        return write( text, 0, text.length() );
+    }
+
+    public OutputHandler write( String text, int start, int end ) {
+        int length = end - start;
+        if( buffer == null || length > bufferSize - position ) {
+            ensure();
+            if( length > bufferSize ) {
+                try {
+                    writer.write( text, start, length );
+                } catch( IOException e ) {
+                    throw new JSONException( "Could not write serialized output", e );
+                }
+                drained += length;
+                return this;
+            }
+        }
+        text.getChars( start, end, buffer, position );
+        position += length;
+        return this;
+    }
+
+    public OutputHandler write( char[] chars, int start, int end ) {
+        int length = end - start;
+        if( buffer == null || length > bufferSize - position ) {
+            ensure();
+            if( length > bufferSize ) {
+                try {
+                    writer.write( chars, start, length );
+                } catch( IOException e ) {
+                    throw new JSONException( "Could not write serialized output", e );
+                }
+                drained += length;
+                return this;
+            }
+        }
+        System.arraycopy( chars, start, buffer, position, length );
+        position += length;
+        return this;
+    }
+
+    /**
+     * Writes out what's buffered and gives the buffer back to the pool.  Writing afterwards
+     * borrows a buffer again.
+     */
+    public void flush() {
+        drain();
+        if( buffer != null ) {
+            BufferPool.releaseChars( buffer );
+            buffer = null;
+        }
+    }
+
+    public void flushDestination() {
+        drain();
+        try {
+            writer.flush();
+        } catch( IOException e ) {
+            throw new JSONException( "Could not flush serialized output", e );
+        }
+    }
+
+    public long getLength() {
+        return drained + position;
+    }
+
+    private void ensure() {
+        if( buffer == null ) {
+            buffer = BufferPool.takeChars( bufferSize );
+        } else {
+            drain();
+        }
+    }
+
+    private void drain() {
+        if( position > 0 ) {
+            try {
+                writer.write( buffer, 0, position );
+            } catch( IOException e ) {
+                throw new JSONException( "Could not write serialized output", e );
+            }
+            drained += position;
+            position = 0;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package flexjson.processor;
+
+import flexjson.GeneratedAccessor;
+import flexjson.JSON;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.beans.Introspector;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Annotation processor generating a {@link flexjson.GeneratedAccessor} for every class annotated
+ * with {@link flexjson.JSON}.  It's registered as a service so javac runs it for any project
+ * compiled with Flexjson on the class path.  The accessor of a class lists the same bean
+ * properties {@link java.beans.Introspector} would find, sorted by name, and the public non
+ * static, non transient fields of the class and its superclasses, and reads them with direct
+ * calls.  Classes the generated code couldn't reach, like private nested classes, are skipped
+ * with a warning and keep being serialized through reflection.
+ */
+public class JSONProcessor extends AbstractProcessor {
+
+    private static final String[] CONTAINERS = {
+        "java.lang.Iterable", "java.util.Map", "java.util.Iterator", "java.util.Spliterator", "java.util.stream.BaseStream"
+    };
+
+    private static final Set<String> SCALARS = new HashSet<String>( Arrays.asList(
+        "java.lang.String", "java.lang.Integer", "java.lang.Long", "java.lang.Double", "java.lang.Float", "java.lang.Short",
+        "java.lang.Byte", "java.lang.Boolean", "java.lang.Character", "java.lang.Class"
+    ) );
+
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton( JSON.class.getName() );
+    }
+
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    public boolean process( Set<? extends TypeElement> annotations, RoundEnvironment round ) {
+        for( Element element : round.getElementsAnnotatedWith( JSON.class ) ) {
+            if( element.getKind() == ElementKind.CLASS && !element.getModifiers().contains( Modifier.ABSTRACT ) ) {
+                TypeElement type = (TypeElement) element;
+                if( isReachable( type ) ) {
+                    generate( type );
+                } else {
+                    processingEnv.getMessager().printMessage( Diagnostic.Kind.WARNING,
+                            "No accessor generated for " + type.getQualifiedName() + ", it isn't reachable from its package", type );
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if code in the package of the type can name it and read its properties.
+     */
+    private boolean isReachable( TypeElement type ) {
+        for( Element current = type; current.getKind() != ElementKind.PACKAGE; current = current.getEnclosingElement() ) {
+            if( !( current instanceof TypeElement ) || current.getModifiers().contains( Modifier.PRIVATE ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void generate( TypeElement type ) {
+        List<Accessor> accessors = new ArrayList<Accessor>( properties( type ).values() );
+        accessors.addAll( fields( type ) );
+
+        String packageName = processingEnv.getElementUtils().getPackageOf( type ).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName( type ).toString();
+        String simpleName = ( packageName.length() == 0 ? binaryName : binaryName.substring( packageName.length() + 1 ) ).replace( '$', '_' ) + GeneratedAccessor.SUFFIX;
+        String beanName = processingEnv.getTypeUtils().erasure( type.asType() ).toString();
+
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile( packageName.length() == 0 ? simpleName : packageName + "." + simpleName, type );
+            PrintWriter out = new PrintWriter( file.openWriter() );
+            try {
+                write( out, packageName, simpleName, beanName, accessors );
+            } finally {
+                out.close();
+            }
+        } catch( IOException e ) {
+            processingEnv.getMessager().printMessage( Diagnostic.Kind.ERROR, "Error writing the accessor of " + type.getQualifiedName() + ": " + e, type );
+        }
+    }
+
+    /**
+     * @return the bean properties of the type by name, each read by the most specific public
+     * getter declared for it.
+     */
+    private TreeMap<String,Accessor> properties( TypeElement type ) {
+        TreeMap<String,Accessor> properties = new TreeMap<String,Accessor>();
+        Set<String> seen = new HashSet<String>();
+        for( TypeElement current = type; current != null; current = superclass( current ) ) {
+            for( ExecutableElement method : ElementFilter.methodsIn( current.getEnclosedElements() ) ) {
+                String methodName = method.getSimpleName().toString();
+                if( !method.getModifiers().contains( Modifier.PUBLIC ) || method.getModifiers().contains( Modifier.STATIC )
+                        || !method.getParameters().isEmpty() || !seen.add( methodName ) ) {
+                    continue;
+                }
+                TypeMirror returnType = method.getReturnType();
+                String name;
+                if( methodName.startsWith( "get" ) && methodName.length() > 3 && returnType.getKind() != TypeKind.VOID ) {
+                    name = Introspector.decapitalize( methodName.substring( 3 ) );
+                } else if( methodName.startsWith( "is" ) && methodName.length() > 2 && returnType.getKind() == TypeKind.BOOLEAN ) {
+                    name = Introspector.decapitalize( methodName.substring( 2 ) );
+                } else {
+                    continue;
+                }
+                Accessor existing = properties.get( name );
+                // like the Introspector, an is getter wins over a get getter for a boolean
+                if( existing == null || ( methodName.startsWith( "is" ) && existing.source.startsWith( "get" ) ) ) {
+                    JSON json = method.getAnnotation( JSON.class );
+                    int flags = typeFlags( returnType );
+                    if( json != null ) {
+                        flags |= json.include() ? GeneratedAccessor.INCLUDE : GeneratedAccessor.EXCLUDE;
+                    }
+                    properties.put( name, new Accessor( name, methodName, methodName + "()", flags ) );
+                }
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * @return the public fields of the type and its superclasses, the type's own first.
+     */
+    private List<Accessor> fields( TypeElement type ) {
+        List<Accessor> fields = new ArrayList<Accessor>();
+        for( TypeElement current = type; current != null; current = superclass( current ) ) {
+            for( VariableElement field : ElementFilter.fieldsIn( current.getEnclosedElements() ) ) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if( modifiers.contains( Modifier.PUBLIC ) && !modifiers.contains( Modifier.STATIC ) && !modifiers.contains( Modifier.TRANSIENT ) ) {
+                    String name = field.getSimpleName().toString();
+                    // a field hidden by a subclass is read through a cast to the class declaring it
+                    String target = "((" + processingEnv.getTypeUtils().erasure( current.asType() ) + ") target)." + name;
+                    fields.add( new Accessor( name, name, target, typeFlags( field.asType() ) | GeneratedAccessor.FIELD ) );
+                }
+            }
+        }
+        return fields;
+    }
+
+    private TypeElement superclass( TypeElement type ) {
+        TypeMirror superclass = type.getSuperclass();
+        if( superclass.getKind() != TypeKind.DECLARED ) {
+            return null;
+        }
+        return (TypeElement) ((DeclaredType) superclass).asElement();
+    }
+
+    /**
+     * @return the GeneratedAccessor type, container and scalar flags for a property of the given type.
+     */
+    private int typeFlags( TypeMirror type ) {
+        switch( type.getKind() ) {
+            case INT:
+                return GeneratedAccessor.INT | GeneratedAccessor.SCALAR;
+            case LONG:
+                return GeneratedAccessor.LONG | GeneratedAccessor.SCALAR;
+            case FLOAT:
+                return GeneratedAccessor.FLOAT | GeneratedAccessor.SCALAR;
+            case DOUBLE:
+                return GeneratedAccessor.DOUBLE | GeneratedAccessor.SCALAR;
+            case BOOLEAN:
+            case CHAR:
+            case SHORT:
+            case BYTE:
+                return GeneratedAccessor.OBJECT | GeneratedAccessor.SCALAR;
+            case ARRAY:
+                return GeneratedAccessor.CONTAINER;
+            default:
+                if( isContainer( type ) ) {
+                    return GeneratedAccessor.CONTAINER;
+                }
+                return isScalar( type ) ? GeneratedAccessor.OBJECT | GeneratedAccessor.SCALAR : GeneratedAccessor.OBJECT;
+        }
+    }
+
+    /**
+     * @return true for the boxes of the primitives, String, Class and enums, the declared types
+     * {@link flexjson.JSONSerializer} writes as a single value.
+     */
+    private boolean isScalar( TypeMirror type ) {
+        if( type.getKind() != TypeKind.DECLARED ) {
+            return false;
+        }
+        Element element = ((DeclaredType) type).asElement();
+        return element.getKind() == ElementKind.ENUM || SCALARS.contains( ((TypeElement) element).getQualifiedName().toString() );
+    }
+
+    private boolean isContainer( TypeMirror type ) {
+        if( type.getKind() != TypeKind.DECLARED && type.getKind() != TypeKind.TYPEVAR ) {
+            return false;
+        }
+        TypeMirror erased = processingEnv.getTypeUtils().erasure( type );
+        for( String container : CONTAINERS ) {
+            TypeElement element = processingEnv.getElementUtils().getTypeElement( container );
+            if( element != null && processingEnv.getTypeUtils().isAssignable( erased, processingEnv.getTypeUtils().erasure( element.asType() ) ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void write( PrintWriter out, String packageName, String simpleName, String beanName, List<Accessor> accessors ) {
+        if( packageName.length() > 0 ) {
+            out.println( "package " + packageName + ";" );
+            out.println();
+        }
+        out.println( "/**" );
+        out.println( " * Generated by " + JSONProcessor.class.getName() + " from " + beanName + ", don't edit." );
+        out.println( " */" );
+        out.println( "@SuppressWarnings({\"rawtypes\", \"unchecked\"})" );
+        out.println( "public final class " + simpleName + " extends " + GeneratedAccessor.class.getName() + " {" );
+        out.println();
+        out.println( "    public " + simpleName + "() {" );
+        out.println( "        super( new String[] {" );
+        for( int i = 0; i < accessors.size(); i++ ) {
+            out.println( "            \"" + accessors.get( i ).name + "\"" + ( i < accessors.size() - 1 ? "," : "" ) );
+        }
+        out.println( "        }, new int[] {" );
+        for( int i = 0; i < accessors.size(); i++ ) {
+            out.println( "            " + flags( accessors.get( i ).flags ) + ( i < accessors.size() - 1 ? "," : "" ) );
+        }
+        out.println( "        } );" );
+        out.println( "    }" );
+        writeGetter( out, "Object", "get", beanName, accessors, -1 );
+        writeGetter( out, "int", "getInt", beanName, accessors, GeneratedAccessor.INT );
+        writeGetter( out, "long", "getLong", beanName, accessors, GeneratedAccessor.LONG );
+        writeGetter( out, "double", "getDouble", beanName, accessors, GeneratedAccessor.FLOAT );
+        out.println( "}" );
+    }
+
+    /**
+     * Writes one of the getters as a switch over the properties of the given type, or of the
+     * float and double types for getDouble.  Any other property goes to the inherited getter.
+     */
+    private void writeGetter( PrintWriter out, String returnType, String method, String beanName, List<Accessor> accessors, int type ) {
+        List<Integer> cases = new ArrayList<Integer>();
+        for( int i = 0; i < accessors.size(); i++ ) {
+            int accessorType = accessors.get( i ).flags & GeneratedAccessor.TYPE_MASK;
+            if( type < 0 || accessorType == type || ( type == GeneratedAccessor.FLOAT && accessorType == GeneratedAccessor.DOUBLE ) ) {
+                cases.add( i );
+            }
+        }
+        if( type >= 0 && cases.isEmpty() ) {
+            return;
+        }
+        out.println();
+        out.println( "    public " + returnType + " " + method + "( Object bean, int property ) throws Exception {" );
+        out.println( "        " + beanName + " target = (" + beanName + ") bean;" );
+        out.println( "        switch( property ) {" );
+        for( int i : cases ) {
+            Accessor accessor = accessors.get( i );
+            String read = accessor.read.endsWith( "()" ) ? "target." + accessor.read : accessor.read;
+            out.println( "            case " + i + ":" );
+            out.println( "                return " + read + ";" );
+        }
+        out.println( "            default:" );
+        if( type < 0 ) {
+            out.println( "                throw new IndexOutOfBoundsException( \"No property \" + property );" );
+        } else {
+            out.println( "                return super." + method + "( bean, property );" );
+        }
+        out.println( "        }" );
+        out.println( "    }" );
+    }
+
+    private static String flags( int flags ) {
+        String[] types = { "OBJECT", "INT", "LONG", "FLOAT", "DOUBLE" };
+        StringBuilder source = new StringBuilder( types[ flags & GeneratedAccessor.TYPE_MASK ] );
+        if( ( flags & GeneratedAccessor.CONTAINER ) != 0 ) {
+            source.append( " | CONTAINER" );
+        }
+        if( ( flags & GeneratedAccessor.INCLUDE ) != 0 ) {
+            source.append( " | INCLUDE" );
+        }
+        if( ( flags & GeneratedAccessor.EXCLUDE ) != 0 ) {
+            source.append( " | EXCLUDE" );
+        }
+        if( ( flags & GeneratedAccessor.FIELD ) != 0 ) {
+            source.append( " | FIELD" );
+        }
+        if( ( flags & GeneratedAccessor.SCALAR ) != 0 ) {
+            source.append( " | SCALAR" );
+        }
+        return source.toString();
+    }
+
+    private static final class Accessor {
+        private final String name;
+        private final String source;
+        private final String read;
+        private final int flags;
+
+        Accessor( String name, String source, String read, int flags ) {
+            this.name = name;
+            this.source = source;
+            this.read = read;
+            this.flags = flags;
+        }
+    }
+}
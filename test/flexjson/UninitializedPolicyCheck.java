@@ -0,0 +1,177 @@
+package flexjson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+
+/**
+ * Checks each {@link flexjson.UninitializedPolicy} against fake Hibernate proxies and
+ * persistent collections, which are recognized by the names of the interfaces they implement
+ * just like the real ones.  Run it with the flexjson sources and this directory:
+ *
+ * <pre>
+ * javac -encoding ISO-8859-1 -d out $(find src/flexjson test -name '*.java')
+ * java -cp out flexjson.UninitializedPolicyCheck
+ * </pre>
+ *
+ * It prints each check that passed and throws an AssertionError at the first that doesn't.
+ */
+public class UninitializedPolicyCheck {
+
+    // how often the fakes were read beyond their identifier, which is what loading them costs
+    static int loads = 0;
+
+    public static class Planet {
+        private final long id;
+        private final String name;
+        private Planet moon;
+        private Collection<String> rings;
+
+        public Planet( long id, String name ) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Planet getMoon() {
+            return moon;
+        }
+
+        public Collection<String> getRings() {
+            return rings;
+        }
+    }
+
+    /**
+     * A proxy for a planet that hasn't been loaded.  Its identifier can be read for free, every
+     * other getter loads it.
+     */
+    public static class PlanetProxy extends Planet implements HibernateProxy {
+        private final Initializer initializer;
+
+        public PlanetProxy( Planet target ) {
+            super( target.getId(), null );
+            initializer = new Initializer( target );
+        }
+
+        public LazyInitializer getHibernateLazyInitializer() {
+            return initializer;
+        }
+
+        public String getName() {
+            return initializer.load().getName();
+        }
+
+        public Planet getMoon() {
+            return initializer.load().getMoon();
+        }
+
+        public Collection<String> getRings() {
+            return initializer.load().getRings();
+        }
+    }
+
+    public static class Initializer implements LazyInitializer {
+        private final Planet target;
+        private boolean uninitialized = true;
+
+        public Initializer( Planet target ) {
+            this.target = target;
+        }
+
+        public Class<?> getPersistentClass() {
+            return Planet.class;
+        }
+
+        public boolean isUninitialized() {
+            return uninitialized;
+        }
+
+        public Object getIdentifier() {
+            return target.getId();
+        }
+
+        Planet load() {
+            if( uninitialized ) {
+                loads++;
+                uninitialized = false;
+            }
+            return target;
+        }
+    }
+
+    /**
+     * A lazy collection that loads its elements the first time they're iterated.
+     */
+    public static class LazyList extends ArrayList<String> implements PersistentCollection {
+        private boolean initialized = false;
+
+        public LazyList( String... elements ) {
+            super( Arrays.asList( elements ) );
+        }
+
+        public boolean wasInitialized() {
+            return initialized;
+        }
+
+        public Iterator<String> iterator() {
+            if( !initialized ) {
+                loads++;
+                initialized = true;
+            }
+            return super.iterator();
+        }
+    }
+
+    public static void main( String[] args ) {
+        check( UninitializedPolicy.LOAD, "{\"id\":1,\"moon\":{\"id\":2,\"name\":\"Moon\"},\"name\":\"Earth\",\"rings\":[\"inner\"]}", 2, 0 );
+        check( UninitializedPolicy.IDENTIFIER, "{\"id\":1,\"moon\":2,\"name\":\"Earth\"}", 0, 2 );
+        check( UninitializedPolicy.SKIP, "{\"id\":1,\"name\":\"Earth\"}", 0, 2 );
+
+        JSONSerializer serializer = new JSONSerializer().exclude( "*.class" ).uninitialized( UninitializedPolicy.SKIP );
+        loads = 0;
+        SerializationStats stats = new SerializationStats();
+        String json = serializer.deepSerialize( Arrays.asList( new PlanetProxy( new Planet( 2, "Moon" ) ), new LazyList( "inner" ), 3 ), stats );
+        expect( "SKIP elements", "[null,null,3]", json, stats, 0, 2 );
+
+        loads = 0;
+        stats = new SerializationStats();
+        json = serializer.deepSerialize( new PlanetProxy( new Planet( 2, "Moon" ) ), stats );
+        expect( "SKIP root", "null", json, stats, 0, 1 );
+    }
+
+    private static void check( UninitializedPolicy policy, String expected, int expectedLoads, long expectedAvoided ) {
+        Planet earth = new Planet( 1, "Earth" );
+        earth.moon = new PlanetProxy( new Planet( 2, "Moon" ) );
+        earth.rings = new LazyList( "inner" );
+        loads = 0;
+        SerializationStats stats = new SerializationStats();
+        String json = new JSONSerializer().exclude( "*.class" ).uninitialized( policy ).deepSerialize( earth, stats );
+        expect( policy.toString(), expected, json, stats, expectedLoads, expectedAvoided );
+    }
+
+    private static void expect( String name, String expected, String json, SerializationStats stats, int expectedLoads, long expectedAvoided ) {
+        if( !expected.equals( json ) ) {
+            throw new AssertionError( name + ": expected " + expected + " but was " + json );
+        }
+        if( loads != expectedLoads ) {
+            throw new AssertionError( name + ": expected " + expectedLoads + " loads but there were " + loads );
+        }
+        if( stats.getAvoidedLoads() != expectedAvoided ) {
+            throw new AssertionError( name + ": expected " + expectedAvoided + " avoided loads but counted " + stats.getAvoidedLoads() );
+        }
+        System.out.println( name + ": ok" );
+    }
+}
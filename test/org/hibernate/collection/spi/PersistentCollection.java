@@ -0,0 +1,10 @@
+package org.hibernate.collection.spi;
+
+/**
+ * Stands in for the part of Hibernate's PersistentCollection the serializer asks about a
+ * lazy collection.
+ */
+public interface PersistentCollection {
+
+    public boolean wasInitialized();
+}
@@ -0,0 +1,11 @@
+package org.hibernate.proxy;
+
+/**
+ * Stands in for Hibernate's interface of the same name, which is all
+ * {@link flexjson.ProxyResolver}s recognize its proxies by, so the proxy handling can be
+ * checked without Hibernate on the class path.
+ */
+public interface HibernateProxy {
+
+    public LazyInitializer getHibernateLazyInitializer();
+}
@@ -0,0 +1,13 @@
+package org.hibernate.proxy;
+
+/**
+ * Stands in for the part of Hibernate's LazyInitializer the serializer asks about a proxy.
+ */
+public interface LazyInitializer {
+
+    public Class<?> getPersistentClass();
+
+    public boolean isUninitialized();
+
+    public Object getIdentifier();
+}